@@ -19,7 +19,7 @@ public class Answer extends Phrase implements Comparable<Answer> {
     private double overall_score = 0.0;
     public List<Passage> passages = new ArrayList<>();
     public List<String> lexical_types = new ArrayList<>();
-    private final Queue<Evidence> evidence = new ConcurrentLinkedQueue<>();
+    final Queue<Evidence> evidence = new ConcurrentLinkedQueue<>();
 
     /**
      * Create an Answer with one implicitly defined Passage
@@ -0,0 +1,122 @@
+package edu.uncc.cs.watsonsim;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A wall-clock allowance for answering one question.
+ * <p>
+ * Expensive stages check the budget before they start (or before each unit
+ * of work) and are skipped or cut short when too little time is left. Each
+ * {@link Stage} needs some share of the whole budget to still remain before
+ * it may run. The least essential stages need the most, so as time runs low
+ * they give up in the order they are declared. The stages that were cut are
+ * recorded, so that the accuracy/latency tradeoff can be measured later.
+ * <p>
+ * The clock starts when the budget is created, so create one per question.
+ *
+ * @author Sean Gallagher
+ */
+public class Budget {
+	/**
+	 * The parts of the pipeline that can be degraded, in the order they give
+	 * up. The reserve is the share of the budget that must still remain for
+	 * the stage to run.
+	 */
+	public enum Stage {
+		/** Searching may only use time until this much is left */
+		SEARCH(0.6),
+		/** Finding supporting passages for each candidate */
+		PASSAGE_RETRIEVAL(0.5),
+		/** Looking up candidate types in DBPedia (SPARQL) */
+		DBPEDIA_TYPES(0.4),
+		/** Reading supporting passages for candidate types (CoreNLP) */
+		SUPPORT_TYPES(0.35),
+		/** Comparing parse trees of passages and candidates */
+		COMMON_CONSTITUENTS(0.3),
+		/** Other scorers that parse every candidate */
+		PARSE_SCORERS(0.2),
+		/** Scorers that look up word vectors */
+		DENSE_VECTORS(0.1);
+
+		public final double reserve;
+		Stage(double reserve) {
+			this.reserve = reserve;
+		}
+	}
+
+	/** A budget that never runs out, for when latency doesn't matter */
+	public static final Budget UNLIMITED = new Budget();
+
+	private final long start;
+	private final long total;
+	private final Map<Stage, String> skipped = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Start the clock on a new budget
+	 * @param allowance		How long the whole question may take
+	 */
+	public Budget(Duration allowance) {
+		start = System.currentTimeMillis();
+		total = allowance.toMillis();
+	}
+
+	/** Unlimited budget */
+	private Budget() {
+		start = System.currentTimeMillis();
+		total = -1;
+	}
+
+	/** How many milliseconds are left, possibly negative. */
+	public long remaining() {
+		if (total < 0) return Long.MAX_VALUE;
+		return start + total - System.currentTimeMillis();
+	}
+
+	/**
+	 * How many milliseconds a stage can have before it must stop.
+	 * Never negative.
+	 */
+	public long millisFor(Stage stage) {
+		if (total < 0) return Long.MAX_VALUE;
+		return Math.max(0, remaining() - (long) (stage.reserve * total));
+	}
+
+	/**
+	 * Whether there is still time for a stage, without recording anything.
+	 * Use this for stages that are cut short rather than skipped entirely.
+	 */
+	public boolean has(Stage stage) {
+		return total < 0 || millisFor(stage) > 0;
+	}
+
+	/**
+	 * Whether there is still time for a stage. If not, the stage is recorded
+	 * as skipped and the caller should not run it.
+	 */
+	public boolean allows(Stage stage) {
+		if (has(stage)) {
+			return true;
+		} else {
+			skip(stage, "skipped");
+			return false;
+		}
+	}
+
+	/**
+	 * Record that a stage was skipped or cut short. Only the first note for
+	 * each stage is kept.
+	 * @param stage		Which stage was cut
+	 * @param note		Something short like "truncated after 5 of 40"
+	 */
+	public void skip(Stage stage, String note) {
+		skipped.putIfAbsent(stage, note);
+	}
+
+	/** All the stages that were skipped or cut short so far, in order */
+	public Map<Stage, String> getSkipped() {
+		return Collections.unmodifiableMap(skipped);
+	}
+}
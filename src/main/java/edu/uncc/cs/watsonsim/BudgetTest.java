@@ -0,0 +1,52 @@
+package edu.uncc.cs.watsonsim;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import edu.uncc.cs.watsonsim.Budget.Stage;
+
+public class BudgetTest {
+
+	@Test
+	public void testUnlimited() {
+		for (Stage s : Stage.values()) {
+			assertTrue(Budget.UNLIMITED.allows(s));
+		}
+		assertTrue(Budget.UNLIMITED.getSkipped().isEmpty());
+	}
+
+	@Test
+	public void testExhausted() {
+		Budget b = new Budget(Duration.ZERO);
+		assertFalse(b.has(Stage.DENSE_VECTORS));
+		assertEquals(0, b.millisFor(Stage.SEARCH));
+		assertTrue(b.getSkipped().isEmpty());
+		assertFalse(b.allows(Stage.COMMON_CONSTITUENTS));
+		assertEquals("skipped", b.getSkipped().get(Stage.COMMON_CONSTITUENTS));
+	}
+
+	@Test
+	public void testOrder() {
+		// Plenty of time: everyone runs, and search gets less than the rest
+		Budget b = new Budget(Duration.ofHours(1));
+		assertTrue(b.allows(Stage.SEARCH));
+		assertTrue(b.allows(Stage.DENSE_VECTORS));
+		assertTrue(b.millisFor(Stage.SEARCH)
+				< b.millisFor(Stage.DENSE_VECTORS));
+	}
+
+	@Test
+	public void testFirstNoteWins() {
+		Budget b = new Budget(Duration.ZERO);
+		b.skip(Stage.PASSAGE_RETRIEVAL, "truncated after 3 of 10");
+		b.skip(Stage.PASSAGE_RETRIEVAL, "truncated after 4 of 10");
+		b.skip(Stage.SEARCH, "dropped [bing]");
+		assertEquals("truncated after 3 of 10",
+				b.getSkipped().get(Stage.PASSAGE_RETRIEVAL));
+		// Reported in the order the stages give up
+		assertEquals(Stage.SEARCH, b.getSkipped().keySet().iterator().next());
+	}
+}
@@ -0,0 +1,267 @@
+package edu.uncc.cs.watsonsim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Save the candidate answers of each question after the early researchers,
+ * so that scorers and the model can be retrained without searching again.
+ * <p>
+ * Searching and researching (Lucene, Indri, SQL, CoreNLP and SPARQL) is most
+ * of the work of a question. But it only changes when the searchers or
+ * researchers do. So in "record" mode, the pipeline saves each question's
+ * answers and passages here after research, and in "replay" mode it starts
+ * from them if they exist, running only the scorers and late researchers.
+ * <p>
+ * Each checkpoint is a small LZ4-compressed binary file, at
+ * data/checkpoints/(version)/(question hash).bin. The version identifies the
+ * searchers and researchers that made it and the configuration they ran
+ * with, so changing either starts over rather than replaying stale
+ * candidates. Settings that only change speed, like pool and cache sizes,
+ * are left out of the version (see {@link #SPEED_ONLY}). Other changes that
+ * alter candidates, like new index files at the same paths, are not
+ * noticed; set checkpoint_version or clear the directory after those.
+ * <p>
+ * A question whose {@link Budget} cut a stage short is not saved, so that
+ * truncated candidates never become what later runs replay.
+ * <p>
+ * Only what the pipeline keeps is saved: texts, scores, passages, lexical
+ * types and evidence. Memoized annotations like parses are recomputed.
+ *
+ * @author Sean Gallagher
+ */
+public class Checkpoints {
+	/** What to do with checkpoints */
+	public enum Mode {
+		/** Ignore them */
+		OFF,
+		/** Always research, and save the results */
+		RECORD,
+		/** Start from a saved checkpoint when there is one, saving new ones */
+		REPLAY
+	}
+
+	private static final int MAGIC = 0x5753434b; // "WSCK"
+	private static final int FORMAT = 1;
+	/**
+	 * Prefixes of the config keys that do not change the candidates, only
+	 * how fast they are found (or, like reindex, only how indices are built).
+	 * Every other key is part of the version.
+	 */
+	static final String[] SPEED_ONLY = {
+		"checkpoint", "scorer_", "pipeline_pool_", "stats_batch_size",
+		"interactive_budget_ms", "sources_cache_mb", "db_", "kv_cache_",
+		"lucene_search_threads", "lucene_warmup", "lucene_refresh_ms",
+		"reindex"
+	};
+
+	public final Mode mode;
+	public final String version;
+	private final Path dir;
+
+	/**
+	 * Create a checkpoint store.
+	 * @param mode		Whether to record, replay or ignore checkpoints
+	 * @param version	Which pipeline made the checkpoints
+	 */
+	public Checkpoints(Mode mode, String version) {
+		this.mode = mode;
+		this.version = version;
+		this.dir = Paths.get("data", "checkpoints", version);
+	}
+
+	/**
+	 * Create a checkpoint store configured from config.properties:
+	 * <pre>
+	 * checkpoints = off | record | replay
+	 * checkpoint_version = (optional, overrides the pipeline's own version)
+	 * </pre>
+	 * @param stages	The classes of the stages that create the checkpoint.
+	 * 					Their names are hashed, with the configuration, to
+	 * 					make the default version.
+	 */
+	public static Checkpoints fromConfig(Configuration conf, List<Class<?>> stages) {
+		StringBuilder names = new StringBuilder();
+		for (Class<?> c : stages) names.append(c.getName()).append('\n');
+		// Sorted, so that the version doesn't depend on the map's order
+		each_key:
+		for (String key : new TreeMap<>(conf.config).keySet()) {
+			for (String prefix : SPEED_ONLY)
+				if (key.startsWith(prefix)) continue each_key;
+			names.append(key).append('=').append(conf.config.get(key)).append('\n');
+		}
+		String default_version = Hashing.sha1()
+				.hashString(names, StandardCharsets.UTF_8)
+				.toString().substring(0, 12);
+		return new Checkpoints(
+				Mode.valueOf(conf.getConfOrElse("checkpoints", "off").toUpperCase()),
+				conf.getConfOrElse("checkpoint_version", default_version));
+	}
+
+	/** Where a question's checkpoint lives */
+	private Path pathFor(Question q) {
+		String key = Hashing.sha1().hashString(
+				q.text + "\n" + q.getCategory(), StandardCharsets.UTF_8).toString();
+		return dir.resolve(key + ".bin");
+	}
+
+	/**
+	 * Load the saved answers for a question, if replaying and there are any.
+	 * A damaged checkpoint is treated as missing.
+	 */
+	public Optional<List<Answer>> load(Question q) {
+		if (mode != Mode.REPLAY) return Optional.empty();
+		Path path = pathFor(q);
+		if (!Files.exists(path)) return Optional.empty();
+		try (DataInputStream in = new DataInputStream(new LZ4BlockInputStream(
+				new BufferedInputStream(Files.newInputStream(path))))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+				return Optional.empty();
+			return Optional.of(readAnswers(in));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Save the answers for a question, if recording or replaying, and its
+	 * budget didn't cut any stage short.
+	 * Failing to save is not fatal; the question can be researched again.
+	 */
+	public void save(Question q, List<Answer> answers) {
+		if (mode == Mode.OFF) return;
+		if (q.budget != null && !q.budget.getSkipped().isEmpty()) return;
+		Path path = pathFor(q);
+		try {
+			Files.createDirectories(dir);
+			// Write to the side, so that readers never see half a file
+			Path tmp = Files.createTempFile(dir, "partial", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new LZ4BlockOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				writeAnswers(out, answers);
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * The binary codec.
+	 * Strings are length-prefixed UTF-8 rather than writeUTF() because
+	 * passages can be longer than 64KB.
+	 */
+
+	static void writeAnswers(DataOutput out, List<Answer> answers) throws IOException {
+		out.writeInt(answers.size());
+		for (Answer a : answers) writeAnswer(out, a);
+	}
+
+	static List<Answer> readAnswers(DataInput in) throws IOException {
+		int n = in.readInt();
+		List<Answer> answers = new ArrayList<>(n);
+		for (int i=0; i<n; i++) answers.add(readAnswer(in));
+		return answers;
+	}
+
+	static void writeAnswer(DataOutput out, Answer a) throws IOException {
+		writeString(out, a.text);
+		out.writeDouble(a.getOverallScore());
+		out.writeInt(a.passages.size());
+		for (Passage p : a.passages) writePassage(out, p);
+		// An answer made from a passage shares the passage's scores
+		boolean shared = !a.passages.isEmpty() && a.passages.get(0).scores == a.scores;
+		out.writeBoolean(shared);
+		if (!shared) writeScore(out, a.scores);
+		out.writeInt(a.lexical_types.size());
+		for (String type : a.lexical_types) writeString(out, type);
+		List<Evidence> evidence = new ArrayList<>(a.evidence);
+		out.writeInt(evidence.size());
+		for (Evidence e : evidence) {
+			writeString(out, e.source);
+			writeString(out, e.note);
+		}
+	}
+
+	static Answer readAnswer(DataInput in) throws IOException {
+		String text = readString(in);
+		double overall = in.readDouble();
+		int n = in.readInt();
+		List<Passage> passages = new ArrayList<>(n);
+		for (int i=0; i<n; i++) passages.add(readPassage(in));
+		Score scores = in.readBoolean() ? passages.get(0).scores : readScore(in);
+		Answer a = new Answer(passages, scores, text);
+		a.setOverallScore(overall);
+		n = in.readInt();
+		for (int i=0; i<n; i++) a.lexical_types.add(readString(in));
+		n = in.readInt();
+		for (int i=0; i<n; i++) a.evidence.add(new Evidence(readString(in), readString(in)));
+		return a;
+	}
+
+	static void writePassage(DataOutput out, Passage p) throws IOException {
+		writeString(out, p.engine_name);
+		writeString(out, p.title);
+		writeString(out, p.text);
+		writeString(out, p.reference);
+		writeScore(out, p.scores);
+	}
+
+	static Passage readPassage(DataInput in) throws IOException {
+		Passage p = new Passage(readString(in), readString(in), readString(in), readString(in));
+		p.scores = readScore(in);
+		return p;
+	}
+
+	static void writeScore(DataOutput out, Score s) throws IOException {
+		List<Map.Entry<String, Double>> entries = new ArrayList<>(s.entrySet());
+		out.writeInt(entries.size());
+		for (Map.Entry<String, Double> e : entries) {
+			writeString(out, e.getKey());
+			out.writeDouble(e.getValue());
+		}
+	}
+
+	static Score readScore(DataInput in) throws IOException {
+		Score s = Score.empty();
+		int n = in.readInt();
+		for (int i=0; i<n; i++) s.put(readString(in), in.readDouble());
+		return s;
+	}
+
+	static void writeString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -74,6 +74,16 @@ public class Configuration {
 		return value;
 	}
 
+	/**
+	 * Convenience method for getting an optional setting.
+	 * @param key The key that may exist in the properties
+	 * @param fallback The value to use if the key is missing
+	 * @return The value from the configuration file, or else the fallback
+	 */
+	public String getConfOrElse(String key, String fallback) {
+		return config.getOrDefault(key, fallback);
+	}
+
 	/**
 	 * Get the path to a resource, ensuring it exists.
 	 * This is mostly to give helpful errors and fail fast if you missed a
@@ -7,10 +7,34 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.sqlite.SQLiteConfig;
 
+/**
+ * The relational database, shared by the whole process.
+ * <p>
+ * There are two ways in. prep() makes statements on a single shared
+ * connection, which is simple and can write, but every thread takes turns
+ * on it. For busy reads, borrow() a connection from a pool instead, and
+ * prepare statements on it, which are cached by their SQL. For SQLite, the
+ * pooled connections are read-only. They can all read at once, and with
+ * db_sqlite_wal they can read even while the shared connection writes.
+ * If the pool can't be opened, borrow() lends out the shared connection,
+ * to one thread at a time.
+ */
 public class Database {
 	private static Connection conn;
+	/** Connections to borrow, created with the first Database */
+	private static BlockingQueue<Pooled> pool;
+	/** The connection each thread has borrowed, if any */
+	private static final ThreadLocal<Lease> leases = new ThreadLocal<>();
+	private static long pool_wait_ms;
 	
 	public Database(Configuration env) {
 		try {
@@ -31,6 +55,7 @@ public class Database {
 					//conn.createStatement().execute("PRAGMA busy_timeout = 30000;");
 					//conn.createStatement().execute("PRAGMA synchronous = OFF;");
 				}
+				openPool(env);
 			}
 			//conn.createStatement().execute("PRAGMA busy_timeout = 30000;");
 			//System.err.println(conn.getClass().getName());
@@ -41,6 +66,151 @@ public class Database {
 		}
 	}
 	
+	/**
+	 * Open the pool of connections to borrow. For SQLite with db_sqlite_wal,
+	 * this switches the database to WAL mode, which lasts, so that readers
+	 * don't block on writers.
+	 */
+	private static void openPool(Configuration env) {
+		String url = env.getConfOrDie("jdbc_connection_string");
+		int size = Integer.parseInt(env.getConfOrElse("db_pool_size",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		int statements = Integer.parseInt(env.getConfOrElse("db_statement_cache", "64"));
+		pool_wait_ms = Long.parseLong(env.getConfOrElse("db_pool_wait_ms", "30000"));
+		boolean sqlite = conn.getClass().getSimpleName().startsWith("SQLite");
+		if (sqlite && Boolean.parseBoolean(env.getConfOrElse("db_sqlite_wal", "false"))) {
+			try (Statement s = conn.createStatement()) {
+				s.execute("PRAGMA journal_mode = WAL;");
+			} catch (SQLException e) {
+				// Readers will just wait for writers, as they always have
+				System.err.println("Couldn't switch the database to WAL mode: "
+						+ e.getMessage());
+			}
+		}
+		pool = new ArrayBlockingQueue<>(Math.max(1, size));
+		try {
+			for (int i=0; i<Math.max(1, size); i++) {
+				Connection c;
+				if (sqlite) {
+					SQLiteConfig config = new SQLiteConfig();
+					config.setReadOnly(true);
+					c = DriverManager.getConnection(url, config.toProperties());
+					try (Statement s = c.createStatement()) {
+						s.execute("PRAGMA busy_timeout = 30000;");
+					}
+				} else {
+					c = DriverManager.getConnection(url);
+				}
+				pool.add(new Pooled(c, statements));
+			}
+		} catch (SQLException e) {
+			System.err.println("Couldn't open the database connection pool, so "
+					+ "sharing one connection instead: " + e.getMessage());
+			for (Pooled p : pool) {
+				try {
+					p.conn.close();
+				} catch (SQLException e2) {
+					e2.printStackTrace();
+				}
+			}
+			pool = new ArrayBlockingQueue<>(1);
+			pool.add(new Pooled(conn, statements));
+		}
+	}
+	
+	/**
+	 * A pooled connection, and the statements prepared on it, most recently
+	 * used last. The statements are closed when they fall out.
+	 */
+	private static final class Pooled {
+		final Connection conn;
+		final Map<String, PreparedStatement> statements;
+		Pooled(Connection conn, int capacity) {
+			this.conn = conn;
+			this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() <= capacity) return false;
+					try {
+						eldest.getValue().close();
+					} catch (SQLException e) {
+						e.printStackTrace();
+					}
+					return true;
+				}
+			};
+		}
+	}
+	
+	/**
+	 * A connection borrowed by one thread. Only that thread may use it, and
+	 * it must close() it (try-with-resources is best) to give it back.
+	 * If the thread borrows again before then, it gets the same connection.
+	 */
+	public static final class Lease implements AutoCloseable {
+		private final Pooled pooled;
+		private int depth = 1;
+		private Lease(Pooled pooled) {
+			this.pooled = pooled;
+		}
+		
+		/**
+		 * Prepare a statement, or reuse the one prepared for the same SQL.
+		 * Don't close it; the connection owns it. It may have parameters
+		 * left over from the last use, so set them all.
+		 */
+		public PreparedStatement prep(String sql) throws SQLException {
+			PreparedStatement ps = pooled.statements.get(sql);
+			if (ps == null) {
+				ps = pooled.conn.prepareStatement(sql);
+				ps.setFetchSize(100);
+				pooled.statements.put(sql, ps);
+			}
+			return ps;
+		}
+		
+		@Override
+		public void close() {
+			if (--depth == 0) {
+				leases.remove();
+				pool.add(pooled);
+			}
+		}
+	}
+	
+	/**
+	 * Borrow a connection from the pool, waiting for one if necessary.
+	 * For SQLite it is read-only; write with prep() instead.
+	 * <pre>
+	 * try (Database.Lease lease = db.borrow()) {
+	 *     PreparedStatement ps = lease.prep("SELECT ...");
+	 *     ...
+	 * }
+	 * </pre>
+	 */
+	public Lease borrow() {
+		Lease lease = leases.get();
+		if (lease != null) {
+			lease.depth++;
+			return lease;
+		}
+		Pooled pooled;
+		try (Metrics.Split s = Metrics.timer("database", "pool_wait").start()) {
+			pooled = pool.poll(pool_wait_ms, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for a database connection.");
+		}
+		if (pooled == null) {
+			Metrics.counter("database", "pool_timeouts").inc();
+			throw new RuntimeException("Waited too long for a database connection.");
+		}
+		lease = new Lease(pooled);
+		leases.set(lease);
+		return lease;
+	}
+	
 	/** Simple wrapper for creating an SQL statement */
 	public PreparedStatement prep(String sql) {
 		PreparedStatement ps;
@@ -2,9 +2,19 @@ package edu.uncc.cs.watsonsim;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.uncc.cs.watsonsim.Budget.Stage;
 import edu.uncc.cs.watsonsim.researchers.*;
 import edu.uncc.cs.watsonsim.scorers.*;
 import edu.uncc.cs.watsonsim.search.*;
@@ -39,15 +49,34 @@ import edu.uncc.cs.watsonsim.search.*;
  * 
  * A {@link Scorer} takes a {@link Question} and generates scores for either
  *     {@link Answer}s or {@link Passage}s (inheriting from
- *     {@link AnswerScorer} or {@link PassageScorer} respectively.)<p>
+ *     {@link AnswerScorer} or {@link PassageScorer} respectively.) Unlike
+ *     Researchers, Scorers run concurrently.<p>
+ * 
+ * askAsync() runs a question in the background and can publish provisional
+ *     rankings along the way, so a frontend can show something early.<p>
+ * 
+ * The candidates after the early Researchers can be saved and replayed
+ *     with {@link Checkpoints}, to iterate quickly on Scorers.<p>
+ * 
+ * A question can be asked with a {@link Budget}. Then the expensive stages
+ *     are skipped or cut short as time runs out, in the order given by
+ *     {@link Budget.Stage}, but Normalize and CombineScores always run on
+ *     whatever scores exist, so there is always a ranked answer list.
  *
  */
 public class DefaultPipeline {
-	private final Searcher[] searchers;
+	private final SearchFanout searchers;
 	private final Researcher early_researchers;
-	private final Scorer[] scorers;
+	private final Checkpoints checkpoints;
+	private final Scorer scorers;
 	private final Researcher late_researchers;
 	private final Environment env = new Environment();
+	/** Runs askAsync(), one question at a time like the rest of ask() */
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("pipeline-%d")
+				.build());
 	
 	/**
 	 * Start a new question answering pipeline.
@@ -58,17 +87,24 @@ public class DefaultPipeline {
 		/*
 		 * Create the pipeline
 		 */
-		searchers = new Searcher[]{
-			new LuceneSearcher(env),
+		Searcher[] engines = {
+			// A sharded index searches faster, if Reindex has made one
+			env.getConfOrElse("lucene_shards", "").isEmpty()
+				? new LuceneSearcher(env)
+				: new FederatedLuceneSearcher(env),
 			new IndriSearcher(env, false),
-			new MeanDVSearch(env),
+			// Hybrid search rescores Lucene hits instead of scanning vectors
+			Boolean.parseBoolean(env.getConfOrElse("hybrid_search", "false"))
+				? new HybridSearcher(env)
+				: new MeanDVSearch(env),
 			//new SemanticVectorSearcher(env),
 			// You may want to cache Bing results
 			// new BingSearcher(config),
 			new CachingSearcher(env, new BingSearcher(env), "bing"),
 			new Anagrams(env)
 		};
-		early_researchers = Researcher.pipe(env.log,
+		searchers = new SearchFanout(env, engines);
+		Researcher[] early = {
 			// Most of the suggestions are garbage
 			//new RedirectSynonyms(env),
 			new HyphenTrimmer(),
@@ -89,33 +125,42 @@ public class DefaultPipeline {
 			new PersonRecognition(),
 			new TagLAT(env),
 			new MergeByCommonSupport()
-		);
-		scorers = new Scorer[]{
+		};
+		early_researchers = Researcher.pipe(env.log, early);
+		
+		// Checkpoints are only valid for the stages that made them
+		List<Class<?>> stages = new ArrayList<>();
+		for (Searcher s : engines) stages.add(s.getClass());
+		for (Researcher r : early) stages.add(r.getClass());
+		checkpoints = Checkpoints.fromConfig(env, stages);
+		scorers = new ParallelScorer(env,
 			new AnswerLength(),
-			new AnswerPOS(),
-			new CommonConstituents(),
+			new Budgeted(Stage.PARSE_SCORERS, new AnswerPOS()),
+			new Budgeted(Stage.COMMON_CONSTITUENTS, new CommonConstituents()),
 			new Correct(env),
 			new DateMatches(),
 			new Entropy(env),
-			new GloveAnswerQuestionContext(),
+			new Budgeted(Stage.DENSE_VECTORS, new GloveAnswerQuestionContext()),
 			new LATCheck(env),
 			new LATMentions(),
 			new LuceneEcho(),
-			new NGram(),
-			new PassageTermMatch(),
+			// In place of NGram, PassageTermMatch, SkipBigram and WordProximity
+			new LexicalFeatures(
+				LexicalFeatures.Feature.NGRAM,
+				LexicalFeatures.Feature.PASSAGE_TERM_MATCH,
+				LexicalFeatures.Feature.SKIP_BIGRAM,
+				LexicalFeatures.Feature.WORD_PROXIMITY),
 			new PassageCount(),
 			new PassageQuestionLengthRatio(),
 			new QuestionID(),
 			new QPKeywordMatch(),
 			new QAKeywordMatch(),
-			new SkipBigram(),
-			new TopPOS(),
-			new WordProximity(),
+			new Budgeted(Stage.PARSE_SCORERS, new TopPOS()),
 			new WPPageViews(env)
 			//new RandomIndexingCosineSimilarity(),
 			//new DistSemCosQAScore(),
 			//new DistSemCosQPScore(),
-		};
+		);
 		late_researchers = Researcher.pipe(env.log,
 			new Normalize(),
 			new WekaTee(run_start),
@@ -132,28 +177,172 @@ public class DefaultPipeline {
 	    return ask(question, System.out::println);
 	}
 	
-    /** Run the full standard pipeline */
+    /** Run the full standard pipeline, taking as long as it needs */
 	public List<Answer> ask(Question question, Consumer<String> listener) {
+		return ask(question, listener, Budget.UNLIMITED);
+	}
+	
+	/**
+	 * Run the standard pipeline within a time budget, skipping the expensive
+	 * stages once it runs low. Afterward, budget.getSkipped() tells which
+	 * stages were cut short.
+	 */
+	public List<Answer> ask(Question question, Consumer<String> listener,
+			Budget budget) {
+		return ask(question, listener, budget, (stage, answers) -> {});
+	}
+	
+	/**
+	 * Run the standard pipeline in the background.
+	 * 
+	 * Besides the final answers, this publishes provisional rankings to
+	 * snapshots as it goes: after "search", after "merge" (when the
+	 * candidates have been merged, researched and typed), and after "score".
+	 * Until the scores are combined, candidates are ranked by how many
+	 * passages support them. The snapshots are called on the pipeline's own
+	 * thread, so they should not keep the answers, which are still changing.
+	 * 
+	 * A pipeline answers one question at a time, so questions given to the
+	 * same pipeline wait for each other.
+	 * 
+	 * @param snapshots	Receives each stage name and a ranked list of answers
+	 * @return	The final answers, as from ask()
+	 */
+	public CompletableFuture<List<Answer>> askAsync(Question question,
+			Consumer<String> listener, Budget budget,
+			BiConsumer<String, List<Answer>> snapshots) {
+		return CompletableFuture.supplyAsync(
+				() -> ask(question, listener, budget, snapshots), worker);
+	}
+	
+	private List<Answer> ask(Question question, Consumer<String> listener,
+			Budget budget, BiConsumer<String, List<Answer>> snapshots) {
+		try (Metrics.Split s = Metrics.timer("pipeline", "ask").start()) {
+			return askTimed(question, listener, budget, snapshots);
+		}
+	}
+	
+	/**
+	 * Send a provisional ranking to the snapshot subscribers.
+	 * Subscribers can fail (like closed sockets) but the question goes on.
+	 */
+	private void publish(BiConsumer<String, List<Answer>> snapshots,
+			String stage, List<Answer> answers) {
+		List<Answer> ranked = new ArrayList<>(answers);
+		ranked.sort(Comparator.comparingInt((Answer a) -> a.passages.size()).reversed());
+		try {
+			snapshots.accept(stage, ranked);
+		} catch (RuntimeException e) {
+			env.log.warn("Failed to publish a " + stage + " snapshot: " + e);
+		}
+	}
+	
+	private List<Answer> askTimed(Question question, Consumer<String> listener,
+			Budget budget, BiConsumer<String, List<Answer>> snapshots) {
 		// Query every engine
 		Log l = env.log;
 		l.setListener(listener);
+		question.budget = budget;
 		
-		l.info("Generating candidate answers..");
-		List<Answer> answers = new ArrayList<>();
-		for (Searcher s: searchers)
-			for (Passage p : s.query(question))
+		List<Answer> answers;
+		Optional<List<Answer>> saved = checkpoints.load(question);
+		if (saved.isPresent()) {
+			l.info("Replaying candidate answers from checkpoint "
+					+ checkpoints.version + "..");
+			answers = saved.get();
+		} else {
+			l.info("Generating candidate answers..");
+			answers = new ArrayList<>();
+			for (Passage p : searchers.query(question))
 				answers.add(new Answer(p));
-		l.info("Generated " + answers.size() + " candidate answers.");
-		
-		answers = early_researchers.pull(question, answers);
+			l.info("Generated " + answers.size() + " candidate answers.");
+			publish(snapshots, "search", answers);
+			
+			answers = early_researchers.pull(question, answers);
+			checkpoints.save(question, answers);
+		}
+		publish(snapshots, "merge", answers);
     	
     	l.info("Scoring supporting evidence..");
-        for (Scorer s: scorers)
-        	s.scoreQuestion(question, answers);
+        scorers.scoreQuestion(question, answers);
+        publish(snapshots, "score", answers);
         
         l.info("Computing confidence..");
         
         answers = late_researchers.pull(question, answers);
+        
+        budget.getSkipped().forEach((stage, note) ->
+        	l.warn("Ran out of time for " + stage + ": " + note));
         return answers;
     }
+	
+	public List<List<Answer>> askAll(List<Question> questions) {
+		return askAll(questions, System.out::println);
+	}
+	
+	/**
+	 * Run the full standard pipeline on a batch of questions together.
+	 * 
+	 * This gives the same answers as asking each question in turn, but the
+	 * questions share work: repeated queries are run once, documents are
+	 * fetched from the sources table in one pass, MeanDVSearch reads its
+	 * vectors once for the whole batch, and CoreNLP parses the batch's texts
+	 * concurrently before the scorers need them.
+	 * 
+	 * @return The answers to each question, in the same order
+	 */
+	public List<List<Answer>> askAll(List<Question> questions,
+			Consumer<String> listener) {
+		try (Metrics.Split s = Metrics.timer("pipeline", "askAll").start()) {
+			Log l = env.log;
+			l.setListener(listener);
+			
+			l.info("Reading " + questions.size() + " questions..");
+			Phrase.annotateAll(questions);
+			
+			// Only search for the questions without checkpoints
+			List<List<Answer>> batch = new ArrayList<>();
+			List<Question> unsaved = new ArrayList<>();
+			for (Question question : questions) {
+				question.budget = Budget.UNLIMITED;
+				Optional<List<Answer>> saved = checkpoints.load(question);
+				batch.add(saved.orElse(null));
+				if (!saved.isPresent()) unsaved.add(question);
+			}
+			l.info("Replaying " + (questions.size() - unsaved.size())
+					+ " questions from checkpoints.");
+			
+			l.info("Generating candidate answers..");
+			Iterator<List<Passage>> found = searchers.queryAll(unsaved).iterator();
+			for (int i=0; i<questions.size(); i++) {
+				if (batch.get(i) != null) continue;
+				Question question = questions.get(i);
+				List<Answer> answers = new ArrayList<>();
+				for (Passage p : found.next())
+					answers.add(new Answer(p));
+				answers = early_researchers.pull(question, answers);
+				checkpoints.save(question, answers);
+				batch.set(i, answers);
+			}
+			
+			l.info("Reading supporting evidence..");
+			List<Phrase> texts = new ArrayList<>();
+			for (List<Answer> answers : batch) {
+				for (Answer a : answers) {
+					texts.add(a);
+					texts.addAll(a.passages);
+				}
+			}
+			Phrase.annotateAll(texts);
+			
+			l.info("Scoring supporting evidence..");
+			for (int i=0; i<questions.size(); i++)
+				scorers.scoreQuestion(questions.get(i), batch.get(i));
+			
+			l.info("Computing confidence..");
+			for (int i=0; i<questions.size(); i++)
+				batch.set(i, late_researchers.pull(questions.get(i), batch.get(i)));
+			return batch;
+		}
+	}
 }
@@ -2,29 +2,44 @@ package edu.uncc.cs.watsonsim;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.QueryBuilder;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.gson.Gson;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.tdb.TDBFactory;
 
+import edu.uncc.cs.watsonsim.search.ShardedIndex;
+
 /**
  * The NLP toolkit needs several shared resources, like text search indices
  * and database connections. Some can be shared between threads to save
@@ -42,15 +57,40 @@ import com.hp.hpl.jena.tdb.TDBFactory;
 public class Environment extends Configuration {
 	public final Database db;
 	public final Dataset rdf;
-	public final IndexSearcher lucene;
+	/**
+	 * The candidate-answer index. It may be refreshed while you search, so
+	 * borrow a searcher with withLucene() rather than keeping one.
+	 * It is null when there is only a sharded index (lucene_shards).
+	 */
+	private final SearcherManager lucene;
+	/** All the shards read as one, when there is no lucene_index */
+	private final IndexSearcher lucene_shards;
 	private final QueryBuilder lucene_query_builder = new QueryBuilder(new StandardAnalyzer());
 	private static final Cache<String, ScoreDoc[]> recent_lucene_searches =
             CacheBuilder.newBuilder()
 		    	.concurrencyLevel(50)
 		    	.softValues()
 		    	.maximumSize(1000)
+		    	.recordStats()
 		    	.build();
+	static {
+		Metrics.cache("lucene.recent_searches", recent_lucene_searches);
+	}
 	public final Log log = new Log(getClass(), System.out::println);
+	/** Threads for searching index segments, shared by every Environment */
+	private static ExecutorService lucene_pool;
+	/** Runs the refreshes of every Environment's index */
+	private static final ScheduledExecutorService lucene_refresher =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("lucene-refresh")
+				.build());
+	/** The persistent cache behind computeIfAbsent(), for every Environment */
+	private static PersistentCache kv_cache;
+	/** Whether the old SQL kv_cache table is still worth reading */
+	private static volatile boolean sql_kv_cache = true;
+	/** Whether this process has run its warm-up queries yet */
+	private static final AtomicBoolean warmed_up = new AtomicBoolean();
 	
 	/**
 	 * Create a (possibly) shared NLP environment. The given data directory
@@ -64,6 +104,7 @@ public class Environment extends Configuration {
 	 * allowing separate development configurations.  
 	 */
 	public Environment() {
+		long started = System.nanoTime();
 		
 		// Now do some per-thread setup
 		db = new Database(this);
@@ -71,15 +112,162 @@ public class Environment extends Configuration {
 				pathMustExist("rdf/jena-lucene.ttl"));
 		
 		// Lucene indexes have huge overhead so avoid re-instantiating by putting them in the Environment
-		IndexReader reader;
+		boolean warmup = Boolean.parseBoolean(getConfOrElse("lucene_warmup", "false"));
+		int threads = Integer.parseInt(getConfOrElse("lucene_search_threads",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		SearcherFactory factory = new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previous) {
+				// Search the segments of the index in parallel
+				return threads > 0
+						? new IndexSearcher(reader, lucenePool(threads))
+						: new IndexSearcher(reader);
+				//lucene.setSimilarity(new BM25Similarity());
+			}
+		};
+		String shards = getConfOrElse("lucene_shards", "");
 		try {
-			reader = DirectoryReader.open(new MMapDirectory(Paths.get(getConfOrDie("lucene_index"))));
+			if (!config.containsKey("lucene_index") && !shards.isEmpty()) {
+				/*
+				 * Only a sharded index. Searchers that use withLucene(), like
+				 * LucenePassageSearcher, read every shard together. Lucene
+				 * gives a MultiReader the statistics of all its shards.
+				 */
+				lucene = null;
+				lucene_shards = factory.newSearcher(
+						new MultiReader(ShardedIndex.open(Paths.get(shards))), null);
+			} else {
+				MMapDirectory dir = new MMapDirectory(Paths.get(getConfOrDie("lucene_index")));
+				// Touch every page when mapping, rather than on the first queries
+				dir.setPreload(warmup);
+				lucene = new SearcherManager(dir, factory);
+				lucene_shards = null;
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new RuntimeException("The candidate-answer Lucene index failed to open.");
 		}
-		lucene = new IndexSearcher(reader);
-		//lucene.setSimilarity(new BM25Similarity());
+		
+		/*
+		 * Pick up whatever Reindex appended, every so often. Searches still
+		 * running keep their old reader until they finish with it.
+		 */
+		long refresh_ms = Long.parseLong(getConfOrElse("lucene_refresh_ms", "0"));
+		if (refresh_ms > 0 && lucene != null) {
+			lucene.addListener(new ReferenceManager.RefreshListener() {
+				public void beforeRefresh() {}
+				public void afterRefresh(boolean changed) {
+					if (changed) {
+						// Cached hits refer to the old reader's documents
+						recent_lucene_searches.invalidateAll();
+						Metrics.counter("lucene", "refreshes").inc();
+						log.info("Refreshed the Lucene index.");
+					}
+				}
+			});
+			lucene_refresher.scheduleWithFixedDelay(() -> {
+				try {
+					lucene.maybeRefresh();
+				} catch (IOException e) {
+					log.warn("Failed to refresh the Lucene index: " + e.getMessage());
+				}
+			}, refresh_ms, refresh_ms, TimeUnit.MILLISECONDS);
+		}
+		
+		if (warmup && warmed_up.compareAndSet(false, true)) warmUp(started);
+	}
+	
+	/** Something to do with a Lucene searcher */
+	@FunctionalInterface
+	public interface LuceneAction<T> {
+		T apply(IndexSearcher lucene) throws IOException;
+	}
+	
+	/**
+	 * Borrow the current Lucene searcher. Document numbers are only
+	 * meaningful to the searcher that found them, so search and read the
+	 * documents you found in the same action.
+	 */
+	public <T> T withLucene(LuceneAction<T> action) throws IOException {
+		if (lucene == null) return action.apply(lucene_shards);
+		IndexSearcher searcher = lucene.acquire();
+		try {
+			return action.apply(searcher);
+		} finally {
+			lucene.release(searcher);
+		}
+	}
+	
+	/**
+	 * The threads for searching segments, created the first time any
+	 * Environment needs them. Later sizes are ignored.
+	 */
+	private static synchronized ExecutorService lucenePool(int threads) {
+		if (lucene_pool == null) {
+			lucene_pool = Executors.newFixedThreadPool(threads,
+					new ThreadFactoryBuilder()
+						.setDaemon(true)
+						.setNameFormat("lucene-%d")
+						.build());
+		}
+		return lucene_pool;
+	}
+	
+	/**
+	 * Run sample queries so that the first real questions don't pay for
+	 * page faults and an unwarmed JIT. The queries are the lines of
+	 * lucene_warmup_queries if it is set, and otherwise some of the
+	 * questions in the database.
+	 * 
+	 * This reports the "time to first fast query": from when the
+	 * Environment started until a sample query first took less than
+	 * lucene_warmup_fast_ms.
+	 * 
+	 * @param started	When the Environment started, from System.nanoTime()
+	 */
+	private void warmUp(long started) {
+		int count = Integer.parseInt(getConfOrElse("lucene_warmup_count", "200"));
+		long fast_ns = TimeUnit.MILLISECONDS.toNanos(
+				Long.parseLong(getConfOrElse("lucene_warmup_fast_ms", "20")));
+		List<String> queries = new ArrayList<>();
+		try {
+			String path = getConfOrElse("lucene_warmup_queries", "");
+			if (!path.isEmpty()) {
+				queries.addAll(Files.readAllLines(Paths.get(path)));
+			} else {
+				PreparedStatement sample = db.prep(
+						"SELECT question FROM questions ORDER BY permute LIMIT ?;");
+				sample.setInt(1, count);
+				ResultSet rs = sample.executeQuery();
+				while (rs.next()) queries.add(rs.getString(1));
+			}
+		} catch (IOException | SQLException e) {
+			log.warn("Couldn't read the warm-up queries: " + e.getMessage());
+		}
+		
+		if (queries.size() > count) queries = queries.subList(0, count);
+		long first_fast = -1;
+		for (String query : queries) {
+			long query_start = System.nanoTime();
+			try {
+				withLucene(searcher -> forcedSimpleLuceneQuery(searcher, query, 100));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			long now = System.nanoTime();
+			if (first_fast < 0 && now - query_start < fast_ns) first_fast = now - started;
+		}
+		long total = System.nanoTime() - started;
+		Metrics.timer("lucene", "warmup").record(total, TimeUnit.NANOSECONDS);
+		if (first_fast >= 0) {
+			Metrics.timer("lucene", "time_to_first_fast_query").record(first_fast, TimeUnit.NANOSECONDS);
+			log.info(String.format("Warmed up Lucene with %d queries in %dms. "
+					+ "Time to first fast query: %dms",
+					queries.size(), total / 1_000_000, first_fast / 1_000_000));
+		} else {
+			log.info(String.format("Warmed up Lucene with %d queries in %dms. "
+					+ "None were fast.", queries.size(), total / 1_000_000));
+		}
 	}
 	
 	/**
@@ -89,9 +277,28 @@ public class Environment extends Configuration {
 	 * @return
 	 */
 	public ScoreDoc[] simpleLuceneQuery(String query, int count) {
+		try {
+			return withLucene(searcher -> simpleLuceneQuery(searcher, query, count));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ScoreDoc[0];
+		}
+	}
+	
+	/**
+	 * Run a vanilla boolean Lucene query with a searcher borrowed from
+	 * withLucene(), so that you can read the documents it finds.
+	 */
+	public ScoreDoc[] simpleLuceneQuery(IndexSearcher searcher, String query, int count) {
 		if (query.length() < 3) return new ScoreDoc[0];
+		// The cache is shared, so keep apart hits from different readers
+		IndexReader reader = searcher.getIndexReader();
+		String key = (reader instanceof DirectoryReader
+					? ((DirectoryReader) reader).getVersion() : "shards")
+				+ " " + count + " " + query;
 		try {
-			return recent_lucene_searches.get(query, () -> forcedSimpleLuceneQuery(query, count));
+			return recent_lucene_searches.get(key,
+					() -> forcedSimpleLuceneQuery(searcher, query, count));
 		} catch (ExecutionException e) {
 			e.printStackTrace();
 			return new ScoreDoc[0];
@@ -106,10 +313,10 @@ public class Environment extends Configuration {
 	 * @throws IOException
 	 *  We  
 	 */
-	private ScoreDoc[] forcedSimpleLuceneQuery(String query, int count) throws IOException {
+	private ScoreDoc[] forcedSimpleLuceneQuery(IndexSearcher searcher, String query, int count) throws IOException {
 		Query bquery = lucene_query_builder.createBooleanQuery("text", query, Occur.SHOULD);
 		if (bquery != null) {
-			return lucene.search(bquery, count).scoreDocs;
+			return searcher.search(bquery, count).scoreDocs;
 		} else {
 			return new ScoreDoc[0];
 		}
@@ -120,42 +327,67 @@ public class Environment extends Configuration {
 	 * more espensive than memcached but it is meant for very expensive
 	 * functions like searching Bing.
 	 * 
+	 * The value is stored as JSON. If you can, use the other version with
+	 * a compact Codec instead.
+	 * 
 	 * @param key    The unique key used to find the cache entry
 	 * @param func   The function we are memoizing
-	 * @param dump   Deserialize func's output
-	 * @param load   Serialize func's output
+	 * @param clazz  The type of func's output, for Gson
 	 * @return       Output of func(key)
 	 */
-	public synchronized <X> X computeIfAbsent(String key,
+	public <X> X computeIfAbsent(String key,
 			Function<String, X> func,
 			Type clazz) {
-		try {
-			// Check cache
-			PreparedStatement general_cache_check = db.prep(
-					"SELECT value, created_on FROM kv_cache "
-					+ "WHERE (key=?);");
-			general_cache_check.setString(1, key);
-			ResultSet result = general_cache_check.executeQuery();
-			if (result.next()) {
-				// Load cache
-				return new Gson().fromJson(result.getString(1), clazz);
-			} else {
-				result.close();
-				general_cache_check.close();
-				// Fill cache
-				PreparedStatement set_cache = db.prep(
-						"INSERT INTO kv_cache (key, value) VALUES (?,?);");
-				X value = func.apply(key);
-				set_cache.setString(1, key);
-				set_cache.setString(2, new Gson().toJson(value));
-				set_cache.executeUpdate();
-				set_cache.close();
-				return value;
+		return computeIfAbsent(key, func, PersistentCache.json(clazz));
+	}
+	
+	/**
+	 * Evaluate a function with a long term persistent cache (see
+	 * PersistentCache), shared by the whole process. Concurrent calls
+	 * don't block each other, and only one computes each missing key.
+	 * 
+	 * @param key    The unique key used to find the cache entry
+	 * @param func   The function we are memoizing
+	 * @param codec  How to store func's output
+	 * @return       Output of func(key)
+	 */
+	public <X> X computeIfAbsent(String key,
+			Function<String, X> func,
+			PersistentCache.Codec<X> codec) {
+		return persistentCache().computeIfAbsent(key, func, codec);
+	}
+	
+	/** The process-wide persistent cache, opened when first needed */
+	private synchronized PersistentCache persistentCache() {
+		if (kv_cache == null) {
+			kv_cache = new PersistentCache(KV.shared(), "kv_cache",
+					TimeUnit.HOURS.toMillis(Long.parseLong(getConfOrElse("kv_cache_ttl_hours", "720"))),
+					Long.parseLong(getConfOrElse("kv_cache_max_entries", "1000000")),
+					Long.parseLong(getConfOrElse("kv_cache_memory_mb", "64")) << 20,
+					this::sqlCache);
+		}
+		return kv_cache;
+	}
+	
+	/**
+	 * Find a value in the SQL kv_cache table, which the persistent cache
+	 * replaced, so that what was cached there needn't be computed again.
+	 */
+	private Optional<String> sqlCache(String key) {
+		if (!sql_kv_cache) return Optional.empty();
+		try (Database.Lease lease = db.borrow()) {
+			PreparedStatement check = lease.prep(
+					"SELECT value FROM kv_cache WHERE (key=?);");
+			check.setString(1, key);
+			try (ResultSet result = check.executeQuery()) {
+				return result.next()
+						? Optional.ofNullable(result.getString(1))
+						: Optional.empty();
 			}
 		} catch (SQLException e) {
-			// Oh no! Back to just evaluating.
-			e.printStackTrace();
-			return func.apply(key);
+			// Probably there is no such table, so don't look again.
+			sql_kv_cache = false;
+			return Optional.empty();
 		}
 	}
 }
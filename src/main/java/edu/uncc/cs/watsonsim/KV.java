@@ -5,19 +5,55 @@ import static org.fusesource.lmdbjni.Constants.bytes;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+import org.fusesource.lmdbjni.BufferCursor;
 import org.fusesource.lmdbjni.Constants;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.DirectBuffer;
+import org.fusesource.lmdbjni.Entry;
 import org.fusesource.lmdbjni.Env;
 import org.fusesource.lmdbjni.Transaction;
 
+/**
+ * A simple key-value store on LMDB, in several named tables.
+ * <p>
+ * Table handles are opened once and kept. Besides get(), which copies
+ * each value, read() and readAll() let you decode values in place, while
+ * they are still in the memory map, and readAll() looks up many keys in a
+ * single transaction.
+ * <p>
+ * Everyone shares the same handle to a table, so don't open tables of this
+ * store yourself: closing your handle would close everyone's. Write with
+ * put() and delete(), and iterate with scan(), instead.
+ */
 public class KV {
+	private static KV shared;
 	public Env db = new Env();
+	/** Open table handles, which LMDB lets every thread share */
+	private final ConcurrentHashMap<String, Database> tables = new ConcurrentHashMap<>();
+	/** Keys being computed by quickGetOrCompute(), by table and key */
+	private final ConcurrentHashMap<String, CompletableFuture<String>> computing =
+			new ConcurrentHashMap<>();
 	public KV() {
 		db.open("data/lmdb", org.fusesource.lmdbjni.Constants.CREATE);
 	}
 	
+	/**
+	 * The store everyone in this process should use. LMDB doesn't allow
+	 * opening the same store twice in one process.
+	 */
+	public static synchronized KV shared() {
+		if (shared == null) shared = new KV();
+		return shared;
+	}
+	
 	/**
 	 * Get a byte array from the database just as it was stored.
 	 * @param table		Which table to retrieve it from
@@ -25,7 +61,119 @@ public class KV {
 	 * @return			byte[]
 	 */
 	public Optional<byte[]> get(String table, String key) {
-		return Optional.ofNullable(db.openDatabase(table).get(bytes(key)));
+		byte[] value = Metrics.timer("lmdb", table).time(
+				() -> table(table).get(bytes(key)));
+		if (value == null) Metrics.counter("lmdb", table + ".misses").inc();
+		return Optional.ofNullable(value);
+	}
+	
+	/**
+	 * The handle of a table, opened (and created if need be) the first time
+	 * it is needed, and never closed.
+	 */
+	private Database table(String table) {
+		return tables.computeIfAbsent(table, db::openDatabase);
+	}
+	
+	/** Make sure a table exists, so that reading it needn't create it */
+	public void create(String table) {
+		table(table);
+	}
+	
+	/**
+	 * Store a value, replacing any there was
+	 * @param table		Which table to store it in
+	 * @param key		Which key to store it under
+	 * @param value		The bytes to store
+	 */
+	public void put(String table, byte[] key, byte[] value) {
+		try (Transaction tx = db.createWriteTransaction()) {
+			table(table).put(tx, key, value);
+			tx.commit();
+		}
+	}
+	
+	/** Delete many keys in one transaction. Missing keys are ignored. */
+	public void delete(String table, List<byte[]> keys) {
+		try (Transaction tx = db.createWriteTransaction()) {
+			Database handle = table(table);
+			for (byte[] key : keys) handle.delete(tx, key);
+			tx.commit();
+		}
+	}
+	
+	/** Something to do with every entry of a table */
+	@FunctionalInterface
+	public interface EntryVisitor {
+		void visit(byte[] key, byte[] value);
+	}
+	
+	/** Visit every entry of a table, in key order, in one transaction */
+	public void scan(String table, EntryVisitor visitor) {
+		try (Transaction tx = db.createReadTransaction()) {
+			for (Entry e : table(table).iterate(tx).iterable())
+				visitor.visit(e.getKey(), e.getValue());
+		}
+	}
+	
+	/** Something to make of a value, while it is still in LMDB's memory */
+	@FunctionalInterface
+	public interface ValueReader<T> {
+		/**
+		 * Read a value. The buffer is only valid until this returns, so
+		 * don't keep it.
+		 */
+		T read(DirectBuffer value);
+	}
+	
+	/**
+	 * Read a value without copying it out of the store.
+	 * @param table		Which table to read it from
+	 * @param key		Which key you want
+	 * @param reader	What to make of the value
+	 * @return			What reader made of it, if the key was there
+	 */
+	public <T> Optional<T> read(String table, String key, ValueReader<T> reader) {
+		return readAll(table, Arrays.asList(key), reader).get(0);
+	}
+	
+	/**
+	 * Read many values in one transaction, without copying them.
+	 * @return	What reader made of each value, in the same order as keys
+	 */
+	public <T> List<Optional<T>> readAll(String table, List<String> keys, ValueReader<T> reader) {
+		List<Optional<T>> results = new ArrayList<>(keys.size());
+		try (Metrics.Split s = Metrics.timer("lmdb", table).start();
+				Transaction tx = db.createReadTransaction();
+				BufferCursor cursor = table(table).bufferCursor(tx)) {
+			for (String key : keys) {
+				byte[] k = bytes(key);
+				// seek() finds the first key at or after this one
+				if (cursor.seek(k) && Arrays.equals(cursor.keyBytes(), k)) {
+					results.add(Optional.ofNullable(reader.read(cursor.valDirectBuffer())));
+				} else {
+					Metrics.counter("lmdb", table + ".misses").inc();
+					results.add(Optional.empty());
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Decode a vector into an existing array, so no new one is needed.
+	 * If the value is shorter than out, the rest of out is zeroed.
+	 */
+	public static void readVector(DirectBuffer value, float[] out) {
+		int n = Math.min(out.length, value.capacity() / 4);
+		for (int i=0; i<n; i++) out[i] = value.getFloat(i*4, ByteOrder.LITTLE_ENDIAN);
+		Arrays.fill(out, n, out.length, 0);
+	}
+	
+	/** Add a vector to an array (out += value), without copying it */
+	public static void addVector(DirectBuffer value, float[] out) {
+		int n = Math.min(out.length, value.capacity() / 4);
+		for (int i=0; i<n; i++) out[i] += value.getFloat(i*4, ByteOrder.LITTLE_ENDIAN);
 	}
 	
 	/**
@@ -52,17 +200,29 @@ public class KV {
 	
 	
 	/**
-	 * Non-atomically update an entry or return it.
+	 * Get an entry, or compute and store it.
 	 * This is used for cases reading is common (getting a fast path
-	 * with only a read lock) but writing is not (and might be run twice).
+	 * with only a read lock) but writing is not. If several threads miss
+	 * the same key at once, only one computes it and the others wait.
 	 */
 	public String quickGetOrCompute(String table, String key, Function<String, String> comp) {
-		return get(table, key).map(Constants::string).orElseGet(() -> {
-			try (Transaction tx = db.createWriteTransaction()){
-				String o = comp.apply(key);
-				db.openDatabase(tx, table, 0).put(bytes(key), bytes(o));
-				return o;
-			}
-		});
+		Optional<String> found = get(table, key).map(Constants::string);
+		if (found.isPresent()) return found.get();
+		
+		String flight = table + "\0" + key;
+		CompletableFuture<String> mine = new CompletableFuture<>();
+		CompletableFuture<String> theirs = computing.putIfAbsent(flight, mine);
+		if (theirs != null) return theirs.join();
+		try {
+			String o = comp.apply(key);
+			put(table, bytes(key), bytes(o));
+			mine.complete(o);
+			return o;
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			computing.remove(flight, mine);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,265 @@
+package edu.uncc.cs.watsonsim;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Counters, timers and cache statistics for finding hot spots under load.
+ * <p>
+ * The Log says what happened to one question, but not where the time goes
+ * across many of them. So every pipeline stage, cache and database records
+ * what it does here, in one global registry. Each metric has a group (like
+ * "researcher" or "cache") and a name (usually the class), and is registered
+ * as a JMX MXBean named edu.uncc.cs.watsonsim:type=group,name=name as soon as
+ * it is created. report() gives the same thing in plain text, which is what
+ * WebFrontend serves at /metrics.
+ * <p>
+ * Everything here is thread safe and cheap enough to leave on all the time.
+ *
+ * @author Sean Gallagher
+ */
+public final class Metrics {
+	private static final Map<String, Object> registry = new ConcurrentHashMap<>();
+	private static final String DOMAIN = "edu.uncc.cs.watsonsim";
+
+	private Metrics() {}
+
+	/** What JMX shows about a Counter */
+	public interface CounterMXBean {
+		long getCount();
+	}
+
+	/** Something that only goes up, like the number of cache misses. */
+	public static final class Counter implements CounterMXBean {
+		private final LongAdder count = new LongAdder();
+		public void inc() { count.increment(); }
+		public void inc(long n) { count.add(n); }
+		public long getCount() { return count.sum(); }
+		@Override
+		public String toString() {
+			return "count=" + getCount();
+		}
+	}
+
+	/** What JMX shows about a Timer */
+	public interface TimerMXBean {
+		long getCount();
+		double getMeanMillis();
+		double getMaxMillis();
+		double getMedianMillis();
+		double get95thPercentileMillis();
+		double get99thPercentileMillis();
+	}
+
+	/**
+	 * A latency histogram. Durations are counted in power-of-two buckets of
+	 * microseconds, so percentiles are only accurate to within a factor of
+	 * two, but recording is just a couple of atomic additions.
+	 */
+	public static final class Timer implements TimerMXBean {
+		private static final int BUCKETS = 40;
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total_nanos = new LongAdder();
+		private final LongAccumulator max_nanos = new LongAccumulator(Math::max, 0);
+
+		private Timer() {
+			for (int i=0; i<BUCKETS; i++) buckets[i] = new LongAdder();
+		}
+
+		/** Record one duration */
+		public void record(long duration, TimeUnit unit) {
+			long nanos = unit.toNanos(duration);
+			long micros = Math.max(1, nanos / 1000);
+			int bucket = 63 - Long.numberOfLeadingZeros(micros);
+			buckets[Math.min(bucket, BUCKETS-1)].increment();
+			count.increment();
+			total_nanos.add(nanos);
+			max_nanos.accumulate(nanos);
+		}
+
+		/** Time how long it takes to get something */
+		public <T> T time(Supplier<T> action) {
+			long start = System.nanoTime();
+			try {
+				return action.get();
+			} finally {
+				record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Start timing, for use with try-with-resources:
+		 * <pre>try (Metrics.Split s = timer.start()) { ... }</pre>
+		 */
+		public Split start() {
+			long start = System.nanoTime();
+			return () -> record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getMeanMillis() {
+			long n = count.sum();
+			return n == 0 ? 0 : total_nanos.sum() / 1e6 / n;
+		}
+
+		public double getMaxMillis() {
+			return max_nanos.get() / 1e6;
+		}
+
+		/**
+		 * Estimate a percentile, as the upper edge of the bucket it falls in
+		 * @param p		Between 0 and 1
+		 */
+		public double percentileMillis(double p) {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int i=0; i<BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+				n += counts[i];
+			}
+			long rank = (long) Math.ceil(p * n);
+			long seen = 0;
+			for (int i=0; i<BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0)
+					return Math.min((1L << (i+1)) / 1000.0, getMaxMillis());
+			}
+			return 0;
+		}
+
+		public double getMedianMillis() { return percentileMillis(0.5); }
+		public double get95thPercentileMillis() { return percentileMillis(0.95); }
+		public double get99thPercentileMillis() { return percentileMillis(0.99); }
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean_ms=%.3f p50_ms=%.3f p95_ms=%.3f"
+					+ " p99_ms=%.3f max_ms=%.3f",
+					getCount(), getMeanMillis(), getMedianMillis(),
+					get95thPercentileMillis(), get99thPercentileMillis(),
+					getMaxMillis());
+		}
+	}
+
+	/** One running measurement of a Timer. Closing it records the time. */
+	public interface Split extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	/** What JMX shows about a Gauge */
+	public interface GaugeMXBean {
+		long getValue();
+	}
+
+	/** A view of some number that goes up and down, like a size */
+	private static final class Gauge implements GaugeMXBean {
+		private final LongSupplier value;
+		Gauge(LongSupplier value) { this.value = value; }
+		public long getValue() { return value.getAsLong(); }
+		@Override
+		public String toString() {
+			return "value=" + getValue();
+		}
+	}
+
+	/** What JMX shows about a Guava cache */
+	public interface CacheMXBean {
+		long getHitCount();
+		long getMissCount();
+		double getHitRate();
+		long getEvictionCount();
+		long getSize();
+	}
+
+	/** A view of a Guava cache's statistics. It must be built recordStats() */
+	private static final class CacheView implements CacheMXBean {
+		private final Cache<?, ?> cache;
+		CacheView(Cache<?, ?> cache) { this.cache = cache; }
+		public long getHitCount() { return cache.stats().hitCount(); }
+		public long getMissCount() { return cache.stats().missCount(); }
+		public double getHitRate() { return cache.stats().hitRate(); }
+		public long getEvictionCount() { return cache.stats().evictionCount(); }
+		public long getSize() { return cache.size(); }
+		@Override
+		public String toString() {
+			CacheStats s = cache.stats();
+			return String.format("hits=%d misses=%d hit_rate=%.3f evictions=%d size=%d",
+					s.hitCount(), s.missCount(), s.hitRate(),
+					s.evictionCount(), cache.size());
+		}
+	}
+
+	/** Get or create a counter */
+	public static Counter counter(String group, String name) {
+		return (Counter) register(group, name, Counter::new);
+	}
+
+	/** Get or create a timer */
+	public static Timer timer(String group, String name) {
+		return (Timer) register(group, name, Timer::new);
+	}
+
+	/**
+	 * Publish a number that is read whenever it is reported, like the size
+	 * of something. Only the first gauge with each name is kept.
+	 */
+	public static void gauge(String group, String name, LongSupplier value) {
+		register(group, name, () -> new Gauge(value));
+	}
+
+	/**
+	 * Publish the statistics of a Guava cache. Build the cache with
+	 * recordStats(), otherwise they will all be zero.
+	 */
+	public static void cache(String name, Cache<?, ?> cache) {
+		register("cache", name, () -> new CacheView(cache));
+	}
+
+	/**
+	 * Find a metric, or create and publish it if it's new.
+	 */
+	private static Object register(String group, String name, Supplier<Object> make) {
+		return registry.computeIfAbsent(group + "." + name, key -> {
+			Object metric = make.get();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(metric,
+						new ObjectName(DOMAIN + ":type=" + group
+								+ ",name=" + (name.matches("[\\w.\\-]+")
+										? name : ObjectName.quote(name))));
+			} catch (JMException e) {
+				// Still usable, just not over JMX
+				e.printStackTrace();
+			}
+			return metric;
+		});
+	}
+
+	/**
+	 * Describe every metric in plain text, one per line, sorted by name:
+	 * <pre>researcher.TagLAT count=12 mean_ms=812.000 ...</pre>
+	 */
+	public static String report() {
+		StringBuilder out = new StringBuilder();
+		new TreeMap<>(registry).forEach((name, metric) ->
+			out.append(name).append(' ').append(metric).append('\n'));
+		return out.toString();
+	}
+}
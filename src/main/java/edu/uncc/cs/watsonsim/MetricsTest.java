@@ -0,0 +1,48 @@
+package edu.uncc.cs.watsonsim;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testCounter() {
+		Metrics.Counter c = Metrics.counter("test", "counter");
+		c.inc();
+		c.inc(2);
+		assertEquals(3, c.getCount());
+		// The same name gives the same counter
+		assertSame(c, Metrics.counter("test", "counter"));
+	}
+
+	@Test
+	public void testTimer() {
+		Metrics.Timer t = Metrics.timer("test", "timer");
+		for (int i=0; i<99; i++) t.record(1, TimeUnit.MILLISECONDS);
+		t.record(1, TimeUnit.SECONDS);
+		assertEquals(100, t.getCount());
+		assertEquals(1000, t.getMaxMillis(), 1e-9);
+		assertEquals(10.99, t.getMeanMillis(), 1e-9);
+		// Buckets are powers of two, so within a factor of two
+		assertTrue(t.getMedianMillis() >= 1 && t.getMedianMillis() <= 2);
+		assertTrue(t.get99thPercentileMillis() <= 2);
+		assertEquals(1000, t.percentileMillis(1), 1e-9);
+	}
+
+	@Test
+	public void testGauge() {
+		long[] size = {4};
+		Metrics.gauge("test", "gauge", () -> size[0]);
+		size[0] = 5;
+		assertTrue(Metrics.report().contains("test.gauge value=5\n"));
+	}
+
+	@Test
+	public void testReport() {
+		Metrics.counter("test", "reported").inc();
+		assertTrue(Metrics.report().contains("test.reported count=1\n"));
+	}
+}
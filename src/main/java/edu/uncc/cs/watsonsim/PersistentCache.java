@@ -0,0 +1,337 @@
+package edu.uncc.cs.watsonsim;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fusesource.lmdbjni.Constants.bytes;
+import static org.fusesource.lmdbjni.Constants.string;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.fusesource.lmdbjni.LMDBException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * A persistent memo for very expensive functions, like searching Bing or
+ * downloading pages, kept in a table of the KV (LMDB) store.
+ * <p>
+ * Reading never locks: LMDB readers see a snapshot and don't block each
+ * other or the writer. If several threads miss the same key at once, only
+ * one computes it and the rest wait for its result. Recently used entries
+ * are also kept (serialized) in memory, up to a number of bytes, so that
+ * hot keys don't even need LMDB.
+ * <p>
+ * Values are written with a Codec, which is a compact binary format for
+ * passages and strings, or JSON for anything else. Each is stamped with
+ * when it was computed, and entries older than the time to live are
+ * computed again. Every so often the table is pruned of expired entries,
+ * and of the oldest ones if it has more than it should. Values the codec
+ * can't write are returned but not cached.
+ *
+ * @author Sean Gallagher
+ */
+public class PersistentCache {
+	/** How to write and read values of some type */
+	public interface Codec<X> {
+		void write(DataOutput out, X value) throws IOException;
+		X read(DataInput in) throws IOException;
+		/**
+		 * Read a value as the old SQL cache stored it, in JSON.
+		 * @return The value, or null if this codec can't
+		 */
+		default X fromJson(String json) {
+			return null;
+		}
+	}
+
+	/** Strings, as UTF-8 */
+	public static final Codec<String> STRING = new Codec<String>() {
+		public void write(DataOutput out, String value) throws IOException {
+			writeString(out, value);
+		}
+		public String read(DataInput in) throws IOException {
+			return readString(in);
+		}
+		public String fromJson(String json) {
+			return new Gson().fromJson(json, String.class);
+		}
+	};
+
+	/** Lists of passages, with their scores */
+	public static final Codec<List<Passage>> PASSAGES = new Codec<List<Passage>>() {
+		public void write(DataOutput out, List<Passage> passages) throws IOException {
+			out.writeInt(passages.size());
+			for (Passage p : passages) {
+				writeString(out, p.engine_name);
+				writeString(out, p.title);
+				writeString(out, p.text);
+				writeString(out, p.reference);
+				out.writeInt(p.scores.size());
+				for (Map.Entry<String, Double> score : p.scores.entrySet()) {
+					writeString(out, score.getKey());
+					out.writeDouble(score.getValue());
+				}
+			}
+		}
+		public List<Passage> read(DataInput in) throws IOException {
+			int count = in.readInt();
+			List<Passage> passages = new ArrayList<>(count);
+			for (int i=0; i<count; i++) {
+				Passage p = new Passage(readString(in), readString(in),
+						readString(in), readString(in));
+				int scores = in.readInt();
+				for (int j=0; j<scores; j++) p.score(readString(in), in.readDouble());
+				passages.add(p);
+			}
+			return passages;
+		}
+		public List<Passage> fromJson(String json) {
+			return new Gson().fromJson(json, new TypeToken<List<Passage>>(){}.getType());
+		}
+	};
+
+	/** Anything Gson can handle, as JSON */
+	public static <X> Codec<X> json(Type type) {
+		return new Codec<X>() {
+			public void write(DataOutput out, X value) throws IOException {
+				writeString(out, new Gson().toJson(value));
+			}
+			public X read(DataInput in) throws IOException {
+				return new Gson().fromJson(readString(in), type);
+			}
+			public X fromJson(String json) {
+				return new Gson().fromJson(json, type);
+			}
+		};
+	}
+
+	/** Prune the table after this many writes */
+	private static final long PRUNE_EVERY = 10000;
+
+	private final KV kv;
+	private final String table;
+	private final long ttl_ms;
+	private final long max_entries;
+	/** Where to look (by key) for JSON values cached before this was */
+	private final Function<String, Optional<String>> legacy;
+	/** Serialized values, with their timestamps, as in LMDB */
+	private final Cache<String, byte[]> front;
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> computing =
+			new ConcurrentHashMap<>();
+	private final AtomicLong writes = new AtomicLong();
+
+	/**
+	 * Create a cache in a table of a KV store
+	 * @param kv			The store
+	 * @param table			The table in it, which is created if necessary
+	 * @param ttl_ms		How long entries live (0 is forever)
+	 * @param max_entries	How many entries to keep at most (0 is no limit)
+	 * @param front_bytes	How many bytes of entries to keep in memory
+	 */
+	public PersistentCache(KV kv, String table, long ttl_ms, long max_entries, long front_bytes) {
+		this(kv, table, ttl_ms, max_entries, front_bytes, key -> Optional.empty());
+	}
+
+	/**
+	 * Create a cache in a table of a KV store, which reads through to an
+	 * older cache on a miss. Values found there are copied into this one,
+	 * so the old cache is migrated as it is used.
+	 * @param legacy		Find the JSON cached for a key in the old cache
+	 */
+	public PersistentCache(KV kv, String table, long ttl_ms, long max_entries,
+			long front_bytes, Function<String, Optional<String>> legacy) {
+		this.kv = kv;
+		this.table = table;
+		this.ttl_ms = ttl_ms;
+		this.max_entries = max_entries;
+		this.legacy = legacy;
+		// Make sure the table exists, so reads needn't
+		kv.create(table);
+		CacheBuilder<String, byte[]> builder = CacheBuilder.newBuilder()
+				.maximumWeight(front_bytes)
+				.weigher((String k, byte[] v) -> k.length() * 2 + v.length)
+				.recordStats();
+		if (ttl_ms > 0) builder.expireAfterWrite(ttl_ms, TimeUnit.MILLISECONDS);
+		front = builder.build();
+		Metrics.cache(table + ".front", front);
+	}
+
+	/**
+	 * Get the value of a function, from the cache if it is there and fresh,
+	 * otherwise computing it once (even if other threads want it too).
+	 * @param key		The unique key of the value
+	 * @param func		The function to memoize
+	 * @param codec		How to store its values
+	 */
+	public <X> X computeIfAbsent(String key, Function<String, X> func, Codec<X> codec) {
+		byte[] stored = front.getIfPresent(key);
+		if (stored == null) {
+			stored = kv.get(table, key).filter(this::fresh).orElse(null);
+			if (stored != null) front.put(key, stored);
+		}
+		if (stored != null) {
+			Metrics.counter(table, "hits").inc();
+			try {
+				return decode(stored, codec);
+			} catch (IOException e) {
+				// Probably written by an older codec; compute it again.
+				e.printStackTrace();
+			}
+		}
+
+		// Only one thread computes each key; the rest wait for it
+		CompletableFuture<byte[]> mine = new CompletableFuture<>();
+		CompletableFuture<byte[]> theirs = computing.putIfAbsent(key, mine);
+		if (theirs != null) {
+			Metrics.counter(table, "shared_misses").inc();
+			try {
+				return decode(theirs.join(), codec);
+			} catch (IOException | RuntimeException e) {
+				// Theirs failed, so try it ourselves, without the cache
+				return func.apply(key);
+			}
+		}
+		Metrics.counter(table, "misses").inc();
+		try {
+			X value = fromLegacy(key, codec);
+			if (value == null)
+				value = Metrics.timer(table, "compute").time(() -> func.apply(key));
+			byte[] encoded;
+			try {
+				encoded = encode(value, codec);
+			} catch (IOException | RuntimeException e) {
+				// Say, a null the codec can't write. The value is still good.
+				Metrics.counter(table, "encode_failures").inc();
+				e.printStackTrace();
+				mine.completeExceptionally(e);
+				return value;
+			}
+			front.put(key, encoded);
+			put(key, encoded);
+			mine.complete(encoded);
+			return value;
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			computing.remove(key, mine);
+		}
+	}
+
+	/** Read a value from the old cache, or null if it isn't there */
+	private <X> X fromLegacy(String key, Codec<X> codec) {
+		Optional<String> json = legacy.apply(key);
+		if (!json.isPresent()) return null;
+		try {
+			X value = codec.fromJson(json.get());
+			if (value != null) Metrics.counter(table, "legacy_hits").inc();
+			return value;
+		} catch (RuntimeException e) {
+			// Not what this codec expects; compute it again.
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** Write an entry to LMDB, pruning the table every so often */
+	private void put(String key, byte[] encoded) {
+		try {
+			kv.put(table, bytes(key), encoded);
+		} catch (LMDBException e) {
+			// Full, or read-only: the value is still good, just not saved
+			Metrics.counter(table, "write_failures").inc();
+			e.printStackTrace();
+		}
+		if (writes.incrementAndGet() % PRUNE_EVERY == 0) prune();
+	}
+
+	/**
+	 * Delete expired entries, then the oldest entries until there are at
+	 * most max_entries.
+	 */
+	public synchronized void prune() {
+		long now = System.currentTimeMillis();
+		List<byte[]> doomed = new ArrayList<>();
+		List<Long> stamps = new ArrayList<>();
+		List<byte[]> keys = new ArrayList<>();
+		kv.scan(table, (key, value) -> {
+			long stamp = stamp(value);
+			if (ttl_ms > 0 && now - stamp > ttl_ms) {
+				doomed.add(key);
+			} else {
+				keys.add(key);
+				stamps.add(stamp);
+			}
+		});
+		if (max_entries > 0 && keys.size() > max_entries) {
+			// Find the stamp of the oldest entry to keep
+			long[] sorted = stamps.stream().mapToLong(Long::longValue).sorted().toArray();
+			long cutoff = sorted[(int) (keys.size() - max_entries)];
+			for (int i=0; i<keys.size(); i++)
+				if (stamps.get(i) < cutoff) doomed.add(keys.get(i));
+		}
+		if (doomed.isEmpty()) return;
+		kv.delete(table, doomed);
+		for (byte[] key : doomed) front.invalidate(string(key));
+		Metrics.counter(table, "pruned").inc(doomed.size());
+	}
+
+	/** Whether a stored value is still within its time to live */
+	private boolean fresh(byte[] stored) {
+		return stored.length >= 8
+				&& (ttl_ms <= 0 || System.currentTimeMillis() - stamp(stored) <= ttl_ms);
+	}
+
+	/** When a stored value was computed */
+	private static long stamp(byte[] stored) {
+		long stamp = 0;
+		for (int i=0; i<8; i++) stamp = stamp << 8 | (stored[i] & 0xff);
+		return stamp;
+	}
+
+	private static <X> byte[] encode(X value, Codec<X> codec) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeLong(System.currentTimeMillis());
+		codec.write(out, value);
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	private static <X> X decode(byte[] stored, Codec<X> codec) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored));
+		in.readLong();
+		return codec.read(in);
+	}
+
+	/* writeUTF is limited to 64KB, so write the length and bytes instead */
+	private static void writeString(DataOutput out, String s) throws IOException {
+		byte[] b = s.getBytes(UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, UTF_8);
+	}
+}
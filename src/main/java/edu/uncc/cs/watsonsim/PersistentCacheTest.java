@@ -0,0 +1,47 @@
+package edu.uncc.cs.watsonsim;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PersistentCacheTest {
+
+	private static <X> X roundTrip(PersistentCache.Codec<X> codec, X value) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		codec.write(new DataOutputStream(buffer), value);
+		return codec.read(new DataInputStream(
+				new ByteArrayInputStream(buffer.toByteArray())));
+	}
+
+	@Test
+	public void testStrings() throws IOException {
+		assertEquals("", roundTrip(PersistentCache.STRING, ""));
+		assertEquals("Café ☃", roundTrip(PersistentCache.STRING, "Café ☃"));
+	}
+
+	@Test
+	public void testPassages() throws IOException {
+		List<Passage> passages = Arrays.asList(
+				new Passage("bing", "Moon", "The moon is made of rock.", "http://moon")
+					.score("BING_RANK", 1.0),
+				new Passage("bing", "", "", "x"));
+		List<Passage> copies = roundTrip(PersistentCache.PASSAGES, passages);
+		assertEquals(2, copies.size());
+		for (int i=0; i<2; i++) {
+			assertEquals(passages.get(i).title, copies.get(i).title);
+			assertEquals(passages.get(i).text, copies.get(i).text);
+			assertEquals(passages.get(i).reference, copies.get(i).reference);
+			assertEquals(passages.get(i).engine_name, copies.get(i).engine_name);
+		}
+		assertEquals(1.0, copies.get(0).scores.get("BING_RANK"), 0);
+	}
+
+}
@@ -1,5 +1,7 @@
 package edu.uncc.cs.watsonsim;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -34,6 +36,7 @@ import edu.stanford.nlp.util.Pair;
 import static edu.stanford.nlp.util.Pair.makePair;
 import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
+import edu.uncc.cs.watsonsim.nlp.Vocabulary;
 
 /**
  * A String, tokenized, parsed into Trees, and as a semantic graph.
@@ -58,7 +61,9 @@ public class Phrase {
 	    	.concurrencyLevel(50)
 	    	.maximumSize(10000)
 	    	.weakValues()
+	    	.recordStats()
 	    	.build();
+	    Metrics.cache("phrase.recent", recent);
 	}
 	
 	/** We still need to use pipelines from other systems. So we make them
@@ -164,6 +169,25 @@ public class Phrase {
 	    return document;
 	}
 	
+	/**
+	 * Run CoreNLP on many phrases at once, before anyone asks for it.
+	 * 
+	 * The phrases are parsed concurrently, and phrases with the same text
+	 * share one parse even if they were not deduplicated by the cache.
+	 * Phrases that were already parsed are skipped.
+	 */
+	public static void annotateAll(Collection<? extends Phrase> phrases) {
+		Map<String, List<Phrase>> todo = new HashMap<>();
+		for (Phrase p : phrases) {
+			if (!p.memos.containsKey(coreNLP))
+				todo.computeIfAbsent(p.text, t -> new ArrayList<>()).add(p);
+		}
+		todo.values().parallelStream().forEach(same -> {
+			Annotation document = same.get(0).memo(coreNLP);
+			for (Phrase p : same) p.memos.putIfAbsent(coreNLP, document);
+		});
+	}
+	
 	/**
 	 * Return CoreNLP sentences.
 	 * Never returns null, only empty collections.
@@ -182,8 +206,9 @@ public class Phrase {
 	 */
 	public static final Function<Phrase, List<Tree>> trees = Phrase::_trees;
 	private static List<Tree> _trees(Phrase p) {
-		// create an empty Annotation just with the given text
-	    Annotation document = p.memo(Phrase.coreNLP);
+		// Scorers run in parallel and read the shared coreNLP document, so
+		// parse into a separate one rather than rewriting it under them.
+	    Annotation document = new Annotation(p.text);
 	    
 	    try{
 	    	// Run the full parse on this text
@@ -204,7 +229,8 @@ public class Phrase {
     		 *  Neither are a big deal for the index. Forget them.
 			 */
 		}
-		return p.memo(Phrase.sentences)
+		return Optional.ofNullable(document.get(SentencesAnnotation.class))
+				.orElse(Collections.emptyList())
 				.stream()
 				.map(s -> s.get(TreeAnnotation.class))
 				.filter(Objects::nonNull)
@@ -219,6 +245,46 @@ public class Phrase {
 		return StringUtils.tokenize(p.text);
 	}
 	
+	/**
+	 * Return Lucene tokens, numbered by the shared Vocabulary
+	 */
+	public static final Function<Phrase, int[]> tokenIds = Phrase::_tokenIds;
+	private static int[] _tokenIds(Phrase p) {
+		return Vocabulary.shared().ids(p.getTokens());
+	}
+	
+	/**
+	 * Return the distinct token numbers, sorted, for set operations
+	 */
+	public static final Function<Phrase, int[]> tokenIdSet = Phrase::_tokenIdSet;
+	private static int[] _tokenIdSet(Phrase p) {
+		return Vocabulary.distinct(p.memo(Phrase.tokenIds));
+	}
+	
+	/**
+	 * Return the fingerprints of adjacent token pairs, in order
+	 */
+	public static final Function<Phrase, long[]> bigrams = Phrase::_bigrams;
+	private static long[] _bigrams(Phrase p) {
+		int[] t = p.memo(Phrase.tokenIds);
+		long[] grams = new long[Math.max(0, t.length - 1)];
+		for (int i=0; i<grams.length; i++)
+			grams[i] = Vocabulary.bigram(t[i], t[i+1]);
+		return grams;
+	}
+	
+	/**
+	 * Return the fingerprints of adjacent token triples, in order
+	 */
+	public static final Function<Phrase, long[]> trigrams = Phrase::_trigrams;
+	private static long[] _trigrams(Phrase p) {
+		int[] t = p.memo(Phrase.tokenIds);
+		long[] grams = new long[Math.max(0, t.length - 2)];
+		for (int i=0; i<grams.length; i++)
+			grams[i] = Vocabulary.trigram(t[i], t[i+1], t[i+2]);
+		return grams;
+	}
+	
 	/**
 	 * Return very lightly processed tokens.
 	 * TODO: Imitate the token processing in Glove
@@ -0,0 +1,160 @@
+package edu.uncc.cs.watsonsim;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A fixed set of ready-to-use pipelines, shared by the frontends.
+ * <p>
+ * Creating a DefaultPipeline loads the Weka model, the Anagrams dictionary,
+ * Lucene readers and so on, which takes seconds. So the pool creates all of
+ * its pipelines up front and lends them out one question at a time.
+ * <p>
+ * When every pipeline is busy, a limited number of callers may wait (for a
+ * limited time) for one to come back. Anyone beyond that is turned away with
+ * a RejectedExecutionException instead of piling up. The time spent waiting
+ * is recorded so you can tell when the pool is too small.
+ *
+ * @author Sean Gallagher
+ */
+public class PipelinePool {
+	private final BlockingQueue<DefaultPipeline> free_pipes;
+	private final Semaphore waiting;
+	private final long max_wait_ms;
+
+	// Statistics
+	private final LongAdder borrowed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder total_wait_ms = new LongAdder();
+	private final LongAccumulator longest_wait_ms =
+			new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Create and warm up a pool of pipelines.
+	 * @param size			How many pipelines to create
+	 * @param max_waiting	How many callers may wait for a pipeline at once
+	 * @param max_wait_ms	How long each of them may wait
+	 */
+	public PipelinePool(int size, int max_waiting, long max_wait_ms) {
+		this.free_pipes = new ArrayBlockingQueue<>(size);
+		this.waiting = new Semaphore(max_waiting);
+		this.max_wait_ms = max_wait_ms;
+		for (int i=0; i<size; i++) {
+			free_pipes.add(new DefaultPipeline());
+		}
+	}
+
+	/**
+	 * Create a pool sized from config.properties:
+	 * <pre>
+	 * pipeline_pool_size = (number of cores)
+	 * pipeline_pool_max_waiting = 16
+	 * pipeline_pool_max_wait_ms = 30000
+	 * </pre>
+	 */
+	public static PipelinePool fromConfig() {
+		Configuration conf = new Configuration();
+		return new PipelinePool(
+				Integer.parseInt(conf.getConfOrElse("pipeline_pool_size",
+						String.valueOf(Runtime.getRuntime().availableProcessors()))),
+				Integer.parseInt(conf.getConfOrElse("pipeline_pool_max_waiting", "16")),
+				Long.parseLong(conf.getConfOrElse("pipeline_pool_max_wait_ms", "30000")));
+	}
+
+	/**
+	 * Take a pipeline from the pool, waiting for one if necessary.
+	 * Be sure to give it back with release(), even if asking fails.
+	 * @throws RejectedExecutionException if too many others are waiting
+	 * 		already, or none became free in time.
+	 */
+	public DefaultPipeline borrow() {
+		DefaultPipeline pipe = free_pipes.poll();
+		if (pipe == null) {
+			if (!waiting.tryAcquire()) {
+				rejected.increment();
+				Metrics.counter("pipeline_pool", "rejected").inc();
+				throw new RejectedExecutionException(
+						"Too many questions are waiting already.");
+			}
+			long start = System.currentTimeMillis();
+			try {
+				pipe = free_pipes.poll(max_wait_ms, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				waiting.release();
+				long waited = System.currentTimeMillis() - start;
+				total_wait_ms.add(waited);
+				longest_wait_ms.accumulate(waited);
+				Metrics.timer("pipeline_pool", "wait").record(waited, TimeUnit.MILLISECONDS);
+			}
+			if (pipe == null) {
+				rejected.increment();
+				Metrics.counter("pipeline_pool", "rejected").inc();
+				throw new RejectedExecutionException(
+						"No pipeline became free in " + max_wait_ms + "ms.");
+			}
+		}
+		borrowed.increment();
+		return pipe;
+	}
+
+	/** Return a borrowed pipeline to the pool */
+	public void release(DefaultPipeline pipe) {
+		free_pipes.offer(pipe);
+	}
+
+	/**
+	 * Borrow a pipeline, use it, and give it back.
+	 * @throws RejectedExecutionException as for borrow()
+	 */
+	public <T> T with(Function<DefaultPipeline, T> action) {
+		DefaultPipeline pipe = borrow();
+		try {
+			return action.apply(pipe);
+		} finally {
+			release(pipe);
+		}
+	}
+
+	/** How many pipelines are idle right now */
+	public int available() {
+		return free_pipes.size();
+	}
+
+	/** How many pipelines were lent out so far */
+	public long getBorrowed() {
+		return borrowed.sum();
+	}
+
+	/** How many callers were turned away */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/** Mean time spent waiting for a pipeline, over every borrow */
+	public double getMeanWaitMillis() {
+		long n = borrowed.sum() + rejected.sum();
+		return n == 0 ? 0 : total_wait_ms.sum() / (double) n;
+	}
+
+	/** The longest anyone waited for a pipeline */
+	public long getLongestWaitMillis() {
+		return longest_wait_ms.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d of %d pipelines idle, %d borrowed, %d rejected,"
+				+ " %.1fms mean wait, %dms longest wait",
+				available(), free_pipes.remainingCapacity() + available(),
+				getBorrowed(), getRejected(),
+				getMeanWaitMillis(), getLongestWaitMillis());
+	}
+}
@@ -16,6 +16,12 @@ public class Question extends Phrase {
 	public final Answer correct_answer;
     private final String category;
     private final QType type;
+    /**
+     * How much time is left to answer this question. The pipeline sets this
+     * before it starts, and expensive stages check it to decide whether to
+     * skip or truncate their work. It is unlimited otherwise.
+     */
+    public transient Budget budget = Budget.UNLIMITED;
     
     /**
      * Construct a new question for analysis.
@@ -2,11 +2,11 @@ package edu.uncc.cs.watsonsim;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import edu.uncc.cs.watsonsim.scorers.Merge;
@@ -60,9 +60,12 @@ final class Meta implements Comparable<Meta> {
  * The score vectors are designed to be memory efficient.
  * So they have no objects or pointers; only primitives.
  * You can manage them using static methods in this class.
+ * 
+ * Many Scorers write into the same vector at once (and an Answer shares its
+ * vector with its first Passage), so it is a concurrent map.
  * @author Sean
  */
-public class Score extends HashMap<String, Double> implements Map<String, Double> {
+public class Score extends ConcurrentHashMap<String, Double> implements Map<String, Double> {
 	private static final long serialVersionUID = 3368114859528405852L;
 	private static final SortedMap<String, Meta> template = new ConcurrentSkipListMap<>();
 
@@ -2,13 +2,21 @@ package edu.uncc.cs.watsonsim;
 import static spark.Spark.*;
 
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import spark.*;
 
 public class WebFrontend {
+	/** Pipelines are expensive to create, so create them once. */
+	private static PipelinePool pipes;
 
 	public static void main(String[] args) {
+		pipes = PipelinePool.fromConfig();
 		Spark.staticFileLocation("public");
+		get("/metrics", (Request request, Response response) -> {
+			response.type("text/plain");
+			return Metrics.report();
+		});
 		//externalStaticFileLocation("public");
 		get("/ask", (Request request, Response response) -> {
     		Question question = new Question(request.queryParams("query"));
@@ -18,7 +26,13 @@ public class WebFrontend {
     				new WriterAppender(
     						new SimpleLayout(),
     						st));*/
-    		List<Answer> answers = new DefaultPipeline().ask(question);
+    		List<Answer> answers;
+    		try {
+    			answers = pipes.with(pipe -> pipe.ask(question));
+    		} catch (RejectedExecutionException e) {
+    			halt(503, e.getMessage());
+    			return null;
+    		}
 	        
     		StringBuilder output = new StringBuilder();
 	        // Throw whole summaries of the data at the client
@@ -5,13 +5,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import org.java_websocket.WebSocket;
@@ -24,11 +23,14 @@ import org.json.simple.JSONObject;
  * A simple WebSocketServer implementation. Keeps track of a "chatroom".
  */
 public class WebsocketFrontend extends WebSocketServer {
-	private static final int CORES
-		= Runtime.getRuntime().availableProcessors();
 	private final ExecutorService es = Executors.newWorkStealingPool();
-	private final BlockingQueue<DefaultPipeline> free_pipes =
-			new ArrayBlockingQueue<DefaultPipeline>(CORES);
+	private final PipelinePool pipes;
+	/**
+	 * How long an interactive question may take, from config.properties as
+	 * interactive_budget_ms. Zero (the default) means no limit.
+	 */
+	private final long budget_ms = Long.parseLong(
+			new Configuration().getConfOrElse("interactive_budget_ms", "0"));
 
 	/**
 	 * Create the frontend, populating pipelines
@@ -36,13 +38,11 @@ public class WebsocketFrontend extends WebSocketServer {
 	 */
 	public WebsocketFrontend( InetSocketAddress address ) {
 		super( address );
-		for (int i=0; i < CORES; i++) {
-			free_pipes.offer(new DefaultPipeline());
-		}
+		pipes = PipelinePool.fromConfig();
 	}
 	
 	public WebsocketFrontend( int port ) throws UnknownHostException {
-		super( new InetSocketAddress( port ) );
+		this( new InetSocketAddress( port ) );
 	}
 
 	
@@ -63,24 +63,53 @@ public class WebsocketFrontend extends WebSocketServer {
 		conn.send(jo.toJSONString());
 	}
 	
+	/** Convert a ranked list of answers to send to the client */
+	private static List<JSONObject> toJSON(List<Answer> answers) {
+		return answers
+				.stream()
+				.map(a -> a.toJSON())
+				.collect(Collectors.toList());
+	}
+	
 	/**
 	 * Wrapper for allocating a pipe and asking something of it.
-	 * @return The answers
+	 * The answer is sent in the background, with provisional answers (flagged
+	 * "partial") on the way, so this returns as soon as a pipe is found.
 	 */
-	private List<Answer> ask(WebSocket conn, String qtext) {
+	private void ask(WebSocket conn, String qtext) {
 		System.out.println("waiting on " + qtext);
-		DefaultPipeline pipe = new DefaultPipeline();
-		System.out.println("Asking " + qtext);
-		if (pipe != null) {
-			List<Answer> answers = pipe.ask(new Question(qtext), a -> send(conn, "log", a));
-			List<JSONObject> json = answers
-					.stream()
-					.map(a -> a.toJSON())
-					.collect(Collectors.toList());
-			send(conn, "result", json);
+		DefaultPipeline pipe;
+		try {
+			pipe = pipes.borrow();
+		} catch (RejectedExecutionException e) {
+			send(conn, "log", "The server is too busy right now. " + e.getMessage());
+			return;
 		}
-		// Give up silently? (Not sure what's better here)
-		return Collections.emptyList();
+		System.out.println("Asking " + qtext);
+		Budget budget = budget_ms > 0
+				? new Budget(Duration.ofMillis(budget_ms))
+				: Budget.UNLIMITED;
+		pipe.askAsync(new Question(qtext),
+				a -> send(conn, "log", a), budget,
+				(stage, answers) -> {
+					JSONObject partial = new JSONObject();
+					partial.put("stage", stage);
+					partial.put("answers", toJSON(answers));
+					send(conn, "partial", partial);
+				}).whenComplete((answers, err) -> {
+			pipes.release(pipe);
+			if (err != null) {
+				err.printStackTrace();
+				send(conn, "log", "Failed to answer the question: " + err);
+				return;
+			}
+			send(conn, "result", toJSON(answers));
+			// Which stages were cut short to answer in time
+			JSONObject skipped = new JSONObject();
+			budget.getSkipped().forEach((stage, note) ->
+				skipped.put(stage.toString(), note));
+			send(conn, "skipped", skipped);
+		});
 	}
 	
 	@Override
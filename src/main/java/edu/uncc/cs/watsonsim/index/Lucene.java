@@ -17,9 +17,39 @@ import org.apache.lucene.store.FSDirectory;
 
 import edu.uncc.cs.watsonsim.Passage;
 
+/**
+ * Index passages with Lucene.
+ * 
+ * The text is always stored, and the title can be stored too, so that
+ * searchers can read hits straight from the index instead of the sources
+ * table (see lucene_stored_fields in config.properties). Lucene compresses
+ * stored fields with LZ4 on its own.
+ * 
+ * The skip-bigrams of the text can be indexed too, in their own field (see
+ * lucene_shingles in config.properties).
+ */
 public class Lucene implements Segment {
 	private final IndexWriter index;
+	private final boolean store_title;
+	private final boolean index_shingles;
+	
+	/** Create an index that stores only the text, as it always has */
 	public Lucene(Path path) throws IOException {
+		this(path, false, false);
+	}
+	
+	/**
+	 * Create an index
+	 * @param path			Where to put the index
+	 * @param store_title	Whether to store the title, so that searchers
+	 * 						need not look it up in the database
+	 * @param index_shingles	Whether to also index the skip-bigrams of
+	 * 						the text (see SkipBigrams), so that searchers
+	 * 						can look them up instead of running phrase queries
+	 */
+	public Lucene(Path path, boolean store_title, boolean index_shingles) throws IOException {
+		this.store_title = store_title;
+		this.index_shingles = index_shingles;
 		/* Setup Lucene */
         Directory dir = FSDirectory.open(path);
         // here we are using a standard analyzer, there are a lot of analyzers available to our use.
@@ -34,8 +64,11 @@ public class Lucene implements Segment {
     public void accept(Passage p){
 		// Index with Lucene
         Document doc = new Document();
-        doc.add(new TextField("title", p.title, Field.Store.NO));
+        doc.add(new TextField("title", p.title,
+        		store_title ? Field.Store.YES : Field.Store.NO));
         doc.add(new TextField("text", p.text, Field.Store.YES));
+        if (index_shingles)
+        	doc.add(new TextField(SkipBigrams.FIELD, SkipBigrams.tokens(p.text)));
         doc.add(new StoredField("docno", p.reference));
         try {
 			index.addDocument(doc);
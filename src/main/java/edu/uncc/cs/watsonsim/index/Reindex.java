@@ -1,11 +1,11 @@
 package edu.uncc.cs.watsonsim.index;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
@@ -31,13 +31,34 @@ public class Reindex {
 	
 	public Reindex() throws IOException {
 		db = new Database(conf);
-		indexers = Arrays.asList(
-				//new Lucene(Paths.get(conf.getConfOrDie("lucene_index")))
-				//new Indri(conf.getConfOrDie("indri_index")),
-				new Bigrams()
-				//new Edges(db)
-				);
-		
+		indexers = new ArrayList<>();
+		// Which segments to build, from config.properties, like "lucene, bigrams"
+		for (String name : conf.getConfOrElse("reindex", "bigrams").split(",")) {
+			switch (name.trim().toLowerCase()) {
+			case "lucene":
+				indexers.add(new Lucene(Paths.get(conf.getConfOrDie("lucene_index")),
+						Boolean.parseBoolean(conf.getConfOrElse("lucene_stored_fields", "false")),
+						Boolean.parseBoolean(conf.getConfOrElse("lucene_shingles", "false"))));
+				break;
+			case "shards":
+				indexers.add(new ShardedLucene(Paths.get(conf.getConfOrDie("lucene_shards")),
+						Integer.parseInt(conf.getConfOrElse("lucene_shard_count", "4")),
+						Boolean.parseBoolean(conf.getConfOrElse("lucene_stored_fields", "false")),
+						Boolean.parseBoolean(conf.getConfOrElse("lucene_shingles", "false"))));
+				break;
+			case "indri":
+				indexers.add(new Indri(conf.getConfOrDie("indri_index")));
+				break;
+			case "bigrams":
+				indexers.add(new Bigrams());
+				break;
+			case "edges":
+				indexers.add(new Edges(db));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown segment in reindex: " + name);
+			}
+		}
 	}
 
     /**
@@ -0,0 +1,52 @@
+package edu.uncc.cs.watsonsim.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import edu.uncc.cs.watsonsim.Passage;
+
+/**
+ * Index passages with Lucene, split into several shards by the hash of
+ * their titles, so that the shards can be written and searched in parallel
+ * (see search.ShardedIndex). All the passages of one title land in the
+ * same shard.
+ */
+public class ShardedLucene implements Segment {
+	private final Lucene[] shards;
+	
+	/**
+	 * Create a sharded index, with the same options as Lucene
+	 * @param path		The directory to put shard-0, shard-1, ... in
+	 * @param count		How many shards to make
+	 */
+	public ShardedLucene(Path path, int count,
+			boolean store_title, boolean index_shingles) throws IOException {
+		shards = new Lucene[count];
+		for (int i=0; i<count; i++) {
+			shards[i] = new Lucene(path.resolve("shard-" + i), store_title, index_shingles);
+		}
+	}
+	
+	/** Which shard a title belongs in */
+	static int shardFor(String title, int count) {
+		// String.hashCode() is the same in every JVM, unlike Object's
+		return Math.floorMod(title.hashCode(), count);
+	}
+	
+	public void accept(Passage p) {
+		shards[shardFor(p.title, shards.length)].accept(p);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (Lucene shard : shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) throw failure;
+	}
+}
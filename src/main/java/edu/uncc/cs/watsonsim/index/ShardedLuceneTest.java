@@ -0,0 +1,19 @@
+package edu.uncc.cs.watsonsim.index;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ShardedLuceneTest {
+
+	@Test
+	public void testShardFor() {
+		for (String title : new String[]{"", "Neil Armstrong", "Moon"}) {
+			int shard = ShardedLucene.shardFor(title, 4);
+			assertTrue(shard >= 0 && shard < 4);
+			assertEquals(shard, ShardedLucene.shardFor(title, 4));
+		}
+		assertEquals(0, ShardedLucene.shardFor("Moon", 1));
+	}
+
+}
@@ -0,0 +1,81 @@
+package edu.uncc.cs.watsonsim.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * The skip-bigrams of a text, as single terms, so that searching for a pair
+ * of words is a term lookup rather than a phrase query.
+ * <p>
+ * A skip-bigram is two words that are next to each other or have one word
+ * between them, which is what a PhraseQuery with a slop of 1 matches. Each
+ * is one term, like "neil armstrong". The text is split the same way
+ * LuceneSearcher splits questions, so queries and the index always agree.
+ *
+ * @author Sean Gallagher
+ */
+public class SkipBigrams {
+	/** The name of the field holding them in the Lucene index */
+	public static final String FIELD = "shingles";
+
+	/** Split text into lowercase words */
+	public static List<String> words(String text) {
+		List<String> words = new ArrayList<>();
+		for (String word : text.split("\\W+")) {
+			if (!word.isEmpty()) words.add(word.toLowerCase(Locale.ROOT));
+		}
+		return words;
+	}
+
+	/** The term for a pair of words */
+	public static String term(String first, String second) {
+		return first + " " + second;
+	}
+
+	/** Every skip-bigram of a text, in order, with repeats */
+	public static List<String> of(String text) {
+		List<String> words = words(text);
+		List<String> terms = new ArrayList<>();
+		for (int i=0; i+1<words.size(); i++) {
+			terms.add(term(words.get(i), words.get(i+1)));
+			if (i+2<words.size()) terms.add(term(words.get(i), words.get(i+2)));
+		}
+		return terms;
+	}
+
+	/** The skip-bigrams of a text, as a stream to index */
+	public static TokenStream tokens(String text) {
+		return new ListTokenStream(of(text));
+	}
+
+	/** Tokens that were already found */
+	private static final class ListTokenStream extends TokenStream {
+		private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+		private final List<String> tokens;
+		private Iterator<String> it;
+
+		ListTokenStream(List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		@Override
+		public boolean incrementToken() {
+			clearAttributes();
+			if (!it.hasNext()) return false;
+			term.setEmpty().append(it.next());
+			return true;
+		}
+
+		@Override
+		public void reset() throws IOException {
+			super.reset();
+			it = tokens.iterator();
+		}
+	}
+}
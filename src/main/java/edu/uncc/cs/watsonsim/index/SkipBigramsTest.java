@@ -0,0 +1,21 @@
+package edu.uncc.cs.watsonsim.index;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SkipBigramsTest {
+
+	@Test
+	public void testOf() {
+		assertEquals(Collections.emptyList(), SkipBigrams.of(""));
+		assertEquals(Collections.emptyList(), SkipBigrams.of("moo"));
+		assertEquals(Arrays.asList("neil armstrong"), SkipBigrams.of("Neil Armstrong"));
+		assertEquals(Arrays.asList("a b", "a c", "b c", "b d", "c d"),
+				SkipBigrams.of("A, b c... d"));
+	}
+
+}
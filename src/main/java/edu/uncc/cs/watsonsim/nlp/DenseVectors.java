@@ -1,14 +1,21 @@
 package edu.uncc.cs.watsonsim.nlp;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import edu.uncc.cs.watsonsim.KV;
+import edu.uncc.cs.watsonsim.Phrase;
 
 public class DenseVectors {
 	public static final int N = 300;
-	private static final KV kv = new KV();
+	private static final KV kv = KV.shared();
+	/* Prefer the memory-mapped table when it has been imported; see
+	 * WordVectorTable. Otherwise fall back to LMDB. */
+	private static final Optional<WordVectorTable> table =
+			WordVectorTable.openIfPresent(WordVectorTable.DEFAULT_LOCATION);
 	
 	/**
 	 * Possibly get a vector context for a word (otherwise an empty Optional)
@@ -18,11 +25,25 @@ public class DenseVectors {
 	public static Optional<float[]> vectorFor(String word) {
 		if (word == null || word.isEmpty()) {
 			return Optional.empty();
+		} else if (table.isPresent()) {
+			return table.get().vectorFor(word);
 		} else {
-			return kv.get("big-glove", word).map(KV::asVector);
+			return kv.read("big-glove", word, v -> {
+				float[] out = new float[N];
+				KV.readVector(v, out);
+				return out;
+			});
 		}
 	}
 	
+	/**
+	 * The memory-mapped word vector table, if it has been imported.
+	 * Use it to work with rows in place instead of copying vectors.
+	 */
+	public static Optional<WordVectorTable> table() {
+		return table;
+	}
+	
 	/**
 	 * Find the cosine similarity of two vectors, which may or may not exist.
 	 * This is pessimistic, saying that if we have never seen a word before, it
@@ -47,6 +68,68 @@ public class DenseVectors {
 		else return ab / (Math.sqrt(aa) * Math.sqrt(bb));
 	}
 	
+	/**
+	 * The dot product of two vectors. The loop is unrolled by four, with a
+	 * separate accumulator for each lane, which the JIT handles better.
+	 */
+	public static float dot(float[] left, float[] right) {
+		int n = Math.min(left.length, right.length);
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i+3<n; i+=4) {
+			s0 += left[i]   * right[i];
+			s1 += left[i+1] * right[i+1];
+			s2 += left[i+2] * right[i+2];
+			s3 += left[i+3] * right[i+3];
+		}
+		for (; i<n; i++) s0 += left[i] * right[i];
+		return (s0 + s1) + (s2 + s3);
+	}
+	
+	/** The length of a vector, to reuse with sim(float[], float, ...) */
+	public static float norm(float[] vec) {
+		return (float) Math.sqrt(dot(vec, vec));
+	}
+	
+	/**
+	 * Cosine similarity when you already know both lengths. Zero-length
+	 * vectors are unrelated to everything, as in sim(float[], float[]).
+	 */
+	public static double sim(float[] left, float left_norm, float[] right, float right_norm) {
+		if (left_norm == 0 || right_norm == 0) return 0;
+		else return dot(left, right) / ((double) left_norm * right_norm);
+	}
+	
+	/**
+	 * Find the cosine similarity of one vector against many, computing the
+	 * query's length only once.
+	 * @param query		The vector to compare against
+	 * @param candidates	The vectors to compare
+	 * @param out		Where to put the similarities, at least as long as
+	 * 					candidates. Reuse it between calls to save garbage.
+	 * @return out
+	 */
+	public static double[] sims(float[] query, float[][] candidates, double[] out) {
+		float query_norm = norm(query);
+		for (int i=0; i<candidates.length; i++) {
+			out[i] = sim(query, query_norm, candidates[i], norm(candidates[i]));
+		}
+		return out;
+	}
+	
+	/**
+	 * Same as sims(float[], float[][], double[]) but with the candidates'
+	 * lengths already known (e.g. from norm()), so only dot products remain.
+	 */
+	public static double[] sims(float[] query, float[][] candidates,
+			float[] candidate_norms, double[] out) {
+		float query_norm = norm(query);
+		for (int i=0; i<candidates.length; i++) {
+			out[i] = sim(query, query_norm, candidates[i], candidate_norms[i]);
+		}
+		return out;
+	}
+	
 	/**
 	 * Tiny wrapper around sim(float[], float[]) for optional-word situations
 	 */
@@ -72,6 +155,44 @@ public class DenseVectors {
 		return mean;
 	}
 	
+	/**
+	 * Average the vectors of a phrase's simple tokens, skipping unknown
+	 * words. Use it as a memo (p.memo(DenseVectors.meanVector)) so a
+	 * question's vector is only found once however many answers it has.
+	 * Don't change the result, since it is shared.
+	 */
+	public static final Function<Phrase, float[]> meanVector = DenseVectors::_meanVector;
+	private static float[] _meanVector(Phrase p) {
+		float[] mean = new float[N];
+		int count = 0;
+		if (table.isPresent()) {
+			for (String word : p.memo(Phrase.simpleTokens)) {
+				int row = table.get().row(word);
+				if (row >= 0) {
+					table.get().addTo(row, mean);
+					count++;
+				}
+			}
+		} else {
+			// Sum the vectors in place, in one LMDB transaction
+			List<String> words = new ArrayList<>();
+			for (String word : p.memo(Phrase.simpleTokens))
+				if (!word.isEmpty()) words.add(word);
+			for (Optional<Boolean> found : kv.readAll("big-glove", words, v -> {
+					KV.addVector(v, mean);
+					return true;
+				})) {
+				if (found.isPresent()) count++;
+			}
+		}
+		if (count>0) for (int i=0; i<N; i++) mean[i] /= count;
+		return mean;
+	}
+	
+	/** The length of a phrase's mean vector, memoized like meanVector */
+	public static final Function<Phrase, Float> meanVectorNorm =
+			p -> norm(p.memo(meanVector));
+	
 	/**
 	 * Multiply many vectors, as a multi-word model. It can be better than mean
 	 * but it's still not a syntactic parse.
@@ -30,5 +30,23 @@ public class DenseVectorsTest {
 		assertEquals(sim(X, Z), 0.707, 0.01);
 		assertEquals(sim(X, X), 1.0, 0.01);
 	}
+	
+	@Test
+	public void testSims() {
+		float[] X = new float[300]; X[0] = (float) 0.5;
+		float[] Y = new float[300]; Y[1] = (float) 0.5;
+		float[] Z = new float[300]; Z[0] = (float) 0.5; Z[1] = (float) 0.5;
+		float[][] candidates = {X, Y, Z, new float[300]};
+		
+		double[] out = sims(X, candidates, new double[4]);
+		assertEquals(out[0], 1.0, 0.01);
+		assertEquals(out[1], 0.0, 0.01);
+		assertEquals(out[2], 0.707, 0.01);
+		assertEquals(out[3], 0.0, 0.01);
+		
+		float[] norms = {norm(X), norm(Y), norm(Z), 0};
+		assertArrayEquals(out, sims(X, candidates, norms, new double[4]), 0.0001);
+		assertEquals(sim(Z, Y), sim(Z, norm(Z), Y, norm(Y)), 0.0001);
+	}
 
 }
@@ -0,0 +1,101 @@
+package edu.uncc.cs.watsonsim.nlp;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only matrix of floats in a memory-mapped file, stored row after row
+ * in little-endian order.
+ * <p>
+ * This keeps big tables of vectors out of the heap, and lets the OS share
+ * them between processes and keep them cached between runs. A single map
+ * is limited to 2GB, so bigger files are mapped in several chunks, each
+ * holding whole rows.
+ *
+ * @author Sean Gallagher
+ */
+public class MappedRows {
+	private final int rows;
+	private final int cols;
+	private final int rows_per_chunk;
+	private final FloatBuffer[] chunks;
+
+	/**
+	 * Map a matrix from a file.
+	 * @param path		The file
+	 * @param offset	Where the first row starts (after any header)
+	 * @param rows		How many rows there are
+	 * @param cols		How many floats are in each row
+	 */
+	public MappedRows(Path path, long offset, int rows, int cols) throws IOException {
+		this.rows = rows;
+		this.cols = cols;
+		this.rows_per_chunk = Math.max(1, Integer.MAX_VALUE / (cols * 4));
+		int chunk_count = (rows + rows_per_chunk - 1) / rows_per_chunk;
+		chunks = new FloatBuffer[chunk_count];
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			for (int i=0; i<chunk_count; i++) {
+				long first = (long) i * rows_per_chunk;
+				long count = Math.min(rows_per_chunk, rows - first);
+				chunks[i] = channel.map(MapMode.READ_ONLY,
+						offset + first * cols * 4, count * cols * 4)
+						.order(ByteOrder.LITTLE_ENDIAN)
+						.asFloatBuffer();
+			}
+		}
+	}
+
+	/** How many rows there are */
+	public int rows() {
+		return rows;
+	}
+
+	/** How many floats are in each row */
+	public int cols() {
+		return cols;
+	}
+
+	/** Get one number */
+	public float get(int row, int col) {
+		return chunks[row / rows_per_chunk].get((row % rows_per_chunk) * cols + col);
+	}
+
+	/** Copy a row into out, which should be at least cols() long */
+	public void get(int row, float[] out) {
+		FloatBuffer chunk = chunks[row / rows_per_chunk];
+		int base = (row % rows_per_chunk) * cols;
+		for (int i=0; i<cols; i++) out[i] = chunk.get(base + i);
+	}
+
+	/** Add a row to a vector (like out += row), without copying the row */
+	public void addTo(int row, float[] out) {
+		FloatBuffer chunk = chunks[row / rows_per_chunk];
+		int base = (row % rows_per_chunk) * cols;
+		for (int i=0; i<cols; i++) out[i] += chunk.get(base + i);
+	}
+
+	/** The dot product of two rows, without copying either */
+	public double dot(int a, int b) {
+		FloatBuffer chunk_a = chunks[a / rows_per_chunk];
+		FloatBuffer chunk_b = chunks[b / rows_per_chunk];
+		int base_a = (a % rows_per_chunk) * cols;
+		int base_b = (b % rows_per_chunk) * cols;
+		double sum = 0;
+		for (int i=0; i<cols; i++) sum += chunk_a.get(base_a + i) * chunk_b.get(base_b + i);
+		return sum;
+	}
+
+	/** The dot product of a row with a vector, without copying the row */
+	public double dot(int row, float[] vec) {
+		FloatBuffer chunk = chunks[row / rows_per_chunk];
+		int base = (row % rows_per_chunk) * cols;
+		double sum = 0;
+		for (int i=0; i<cols; i++) sum += chunk.get(base + i) * vec[i];
+		return sum;
+	}
+}
@@ -20,7 +20,12 @@ import edu.uncc.cs.watsonsim.StringUtils;
 
 public class Relatedness {
 	private final Database db;
-	private final PreparedStatement link_statement;
+	private static final String LINK_SQL =
+			"SELECT count(*), trim_target"
+			+ " FROM wiki_links"
+			+ " WHERE link = ?"
+			+ " GROUP BY trim_target HAVING count(*) > 1" 
+			+ " ORDER BY count(*) DESC;";
 	private final Environment env;
 	
 	public final Redirects redirects;
@@ -31,20 +36,6 @@ public class Relatedness {
 	public Relatedness(Environment env) {
 		this.db = env.db;
 		this.env = env;
-		/*
-		 * It's possible to send arrays of keys instead but the syntax is not
-		 * consistent across PSQL and SQLite so I'm issuing many small queries.
-		 * Postgres -> "WHERE link = ANY (?)"
-		 * SQLite   -> "WHERE link IN (?)"
-		 * So there may be real overhead.
-		 */
-		link_statement = db.prep(
-				"SELECT count(*), trim_target"
-				+ " FROM wiki_links"
-				+ " WHERE link = ?"
-				+ " GROUP BY trim_target HAVING count(*) > 1" 
-				+ " ORDER BY count(*) DESC;");
-		
 		redirects = new Redirects(env);
 	}
 	
@@ -57,7 +48,16 @@ public class Relatedness {
 	 * @param sources an array of words for which you want synonyms
 	 */
 	public List<Weighted<String>> viaWikiLinks(String[] sources) {
-		try {
+		/*
+		 * It's possible to send arrays of keys instead but the syntax is not
+		 * consistent across PSQL and SQLite so I'm issuing many small queries.
+		 * Postgres -> "WHERE link = ANY (?)"
+		 * SQLite   -> "WHERE link IN (?)"
+		 * So there may be real overhead.
+		 * The statement is borrowed, since threads can't share one.
+		 */
+		try (Database.Lease lease = db.borrow()) {
+			PreparedStatement link_statement = lease.prep(LINK_SQL);
 			List<Weighted<String>> synonyms = new ArrayList<>();
 			for (String source : sources){
 				link_statement.setString(1, source);
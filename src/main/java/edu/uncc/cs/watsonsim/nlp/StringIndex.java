@@ -0,0 +1,82 @@
+package edu.uncc.cs.watsonsim.nlp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+
+import org.apache.lucene.codecs.bloom.MurmurHash2;
+
+/**
+ * A compact, read-only map from the strings of a StringStack to their
+ * positions in it.
+ * <p>
+ * This is an open-addressing hash table of two int arrays, so it costs 16
+ * bytes or less per string in the heap, and no objects. Each slot keeps the
+ * hash of its string, so a lookup only decodes a string from the stack
+ * when the full hash matches, which almost always means it is the one.
+ *
+ * @author Sean Gallagher
+ */
+public class StringIndex {
+	private final StringStack strings;
+	private final int[] positions;
+	private final int[] hashes;
+	private final int mask;
+
+	/**
+	 * Index every string in a stack. If a string is repeated, its first
+	 * position wins.
+	 */
+	public StringIndex(StringStack strings) {
+		this.strings = strings;
+		// Keep the table at most half full
+		int capacity = Integer.highestOneBit(Math.max(2, strings.size()) * 2 - 1) << 1;
+		positions = new int[capacity];
+		hashes = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(positions, -1);
+		int i = 0;
+		for (String s : strings) {
+			int hash = hash(s);
+			int slot = find(s, hash);
+			if (positions[slot] == -1) {
+				positions[slot] = i;
+				hashes[slot] = hash;
+			}
+			i++;
+		}
+	}
+
+	/** How many strings are indexed (including repeats) */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Find where a string is in the stack
+	 * @return Its position, or -1 if it's not there
+	 */
+	public int get(String s) {
+		return positions[find(s, hash(s))];
+	}
+
+	/** The string at a position in the stack */
+	public String stringAt(int position) {
+		return strings.get(position);
+	}
+
+	/** The slot holding s, or the empty slot where it would go */
+	private int find(String s, int hash) {
+		int slot = hash & mask;
+		while (positions[slot] != -1
+				&& !(hashes[slot] == hash && strings.get(positions[slot]).equals(s))) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(String s) {
+		byte[] b = s.getBytes(UTF_8);
+		return MurmurHash2.hash(b, 0, 0, b.length);
+	}
+}
@@ -69,6 +69,16 @@ public class StringStack implements Iterable<String> {
 		}
 	}
 
+	/** Is the string at index exactly these UTF-8 bytes? (No decoding) */
+	boolean equalsAt(int index, byte[] bytes) {
+		int offset = start_byte.get(index);
+		if (start_byte.get(index+1) - offset != bytes.length) return false;
+		for (int i=0; i<bytes.length; i++) {
+			if (block.buffer[offset+i] != bytes[i]) return false;
+		}
+		return true;
+	}
+
 	/** Find string x (O(n) - and expensive) */
 	public int indexOf(String o) {
 		int i = 0;
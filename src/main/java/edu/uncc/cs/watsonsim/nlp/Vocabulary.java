@@ -0,0 +1,215 @@
+package edu.uncc.cs.watsonsim.nlp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.codecs.bloom.MurmurHash2;
+
+import edu.uncc.cs.watsonsim.Metrics;
+
+/**
+ * An interned vocabulary, numbering every distinct token it is given.
+ * <p>
+ * Tokens are numbered from zero in the order they are first seen, and keep
+ * their number for the life of the vocabulary. The tokens themselves are
+ * kept in a StringStack and found through an open-addressing table of two
+ * int arrays, like {@link StringIndex}, except that this one grows. So it
+ * costs the UTF-8 length of each token plus a few dozen bytes, and no
+ * objects.
+ * <p>
+ * Once tokens are numbered, comparing them is comparing ints, and their
+ * sets can be sorted int arrays. See {@link #distinct(int[])} and
+ * {@link #overlap(int[], int[])}. Lookups can run concurrently; adding a
+ * new token briefly locks out the others.
+ * <p>
+ * Tokens are never forgotten, so a vocabulary holds at most max_size of
+ * them. After that, new tokens are not kept, and get a negative number made
+ * from their hash instead, which two of them may rarely share. The shared
+ * vocabulary's size is published in Metrics as nlp.Vocabulary.
+ *
+ * @author Sean Gallagher
+ */
+public class Vocabulary {
+	/** How many tokens the shared vocabulary keeps, up to about 200MB */
+	public static final int MAX_SIZE = 1 << 22;
+	private static final Vocabulary shared = new Vocabulary();
+	static {
+		Metrics.gauge("nlp", "Vocabulary", shared::size);
+	}
+
+	private final StringStack words = new StringStack();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// The id in each slot (or -1 for empty), and the hash of its token
+	private int[] ids;
+	private int[] hashes;
+	private int mask;
+	private final int max_size;
+	/** Whether max_size tokens are kept, so new ones needn't be added */
+	private volatile boolean full;
+
+	/** Keep up to MAX_SIZE tokens */
+	public Vocabulary() {
+		this(MAX_SIZE);
+	}
+
+	/** Keep up to max_size tokens, and hash the rest */
+	public Vocabulary(int max_size) {
+		this.max_size = max_size;
+		ids = new int[1024];
+		hashes = new int[1024];
+		mask = ids.length - 1;
+		Arrays.fill(ids, -1);
+	}
+
+	/**
+	 * The vocabulary shared by the whole process, used for Phrase.tokenIds.
+	 */
+	public static Vocabulary shared() {
+		return shared;
+	}
+
+	/** How many distinct tokens have been numbered */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return words.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of a token, numbering it if it is new.
+	 * Once the vocabulary is full, new tokens get negative numbers.
+	 */
+	public int id(String token) {
+		byte[] bytes = token.getBytes(UTF_8);
+		int hash = MurmurHash2.hash(bytes, 0, 0, bytes.length);
+		lock.readLock().lock();
+		try {
+			int id = ids[find(bytes, hash)];
+			if (id != -1) return id;
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (full) return overflow(hash);
+
+		lock.writeLock().lock();
+		try {
+			// Someone else may have added it in the meantime
+			int slot = find(bytes, hash);
+			if (ids[slot] == -1) {
+				if (words.size() >= max_size) {
+					full = true;
+					return overflow(hash);
+				}
+				ids[slot] = words.size();
+				hashes[slot] = hash;
+				words.add(token);
+				// Keep the table at most half full
+				if (words.size() * 2 > ids.length) grow();
+				return words.size() - 1;
+			}
+			return ids[slot];
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** The number of a token past max_size: negative, from its hash */
+	private static int overflow(int hash) {
+		Metrics.counter("nlp", "Vocabulary.overflow").inc();
+		return -1 - (hash & 0x7fffffff);
+	}
+
+	/** Get the numbers of many tokens, in order */
+	public int[] ids(List<String> tokens) {
+		int[] out = new int[tokens.size()];
+		for (int i=0; i<out.length; i++) out[i] = id(tokens.get(i));
+		return out;
+	}
+
+	/**
+	 * Get the token with a number
+	 * @return The token, or null if nothing has that number
+	 */
+	public String token(int id) {
+		lock.readLock().lock();
+		try {
+			return words.get(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** The slot holding bytes, or the empty slot where they would go */
+	private int find(byte[] bytes, int hash) {
+		int slot = hash & mask;
+		while (ids[slot] != -1
+				&& !(hashes[slot] == hash && words.equalsAt(ids[slot], bytes))) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/** Double the table. Call this only with the write lock held. */
+	private void grow() {
+		int[] old_ids = ids, old_hashes = hashes;
+		ids = new int[old_ids.length * 2];
+		hashes = new int[old_ids.length * 2];
+		mask = ids.length - 1;
+		Arrays.fill(ids, -1);
+		for (int i=0; i<old_ids.length; i++) {
+			if (old_ids[i] == -1) continue;
+			// Every token is distinct, so just find an empty slot
+			int slot = old_hashes[i] & mask;
+			while (ids[slot] != -1) slot = (slot + 1) & mask;
+			ids[slot] = old_ids[i];
+			hashes[slot] = old_hashes[i];
+		}
+	}
+
+	/**
+	 * The fingerprint of two adjacent token numbers. This is exact.
+	 */
+	public static long bigram(int a, int b) {
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The fingerprint of three adjacent token numbers. This is a hash, so
+	 * two trigrams may rarely share one.
+	 */
+	public static long trigram(int a, int b, int c) {
+		return bigram(a, b) * 0x9E3779B97F4A7C15L + c;
+	}
+
+	/** The distinct token numbers from ids, sorted */
+	public static int[] distinct(int[] ids) {
+		int[] set = ids.clone();
+		Arrays.sort(set);
+		int n = 0;
+		for (int i=0; i<set.length; i++)
+			if (n == 0 || set[i] != set[n-1])
+				set[n++] = set[i];
+		return n == set.length ? set : Arrays.copyOf(set, n);
+	}
+
+	/**
+	 * How many numbers two sets have in common.
+	 * Both must be sorted and distinct, as from distinct().
+	 */
+	public static int overlap(int[] left, int[] right) {
+		int count = 0;
+		for (int l=0, r=0; l < left.length && r < right.length;) {
+			if (left[l] < right[r]) l++;
+			else if (left[l] > right[r]) r++;
+			else { count++; l++; r++; }
+		}
+		return count;
+	}
+}
@@ -0,0 +1,70 @@
+package edu.uncc.cs.watsonsim.nlp;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class VocabularyTest {
+
+	@Test
+	public void testId() {
+		Vocabulary v = new Vocabulary();
+		assertEquals(0, v.id("moo"));
+		assertEquals(1, v.id("foo"));
+		assertEquals(0, v.id("moo"));
+		assertEquals(2, v.size());
+		assertEquals("foo", v.token(1));
+		assertNull(v.token(2));
+	}
+
+	@Test
+	public void testGrow() {
+		Vocabulary v = new Vocabulary();
+		for (int i=0; i<5000; i++)
+			assertEquals(i, v.id("word" + i));
+		for (int i=0; i<5000; i++)
+			assertEquals(i, v.id("word" + i));
+		assertEquals(5000, v.size());
+		assertEquals("word4321", v.token(4321));
+	}
+
+	@Test
+	public void testFull() {
+		Vocabulary v = new Vocabulary(2);
+		assertEquals(0, v.id("moo"));
+		assertEquals(1, v.id("foo"));
+		int boo = v.id("boo");
+		assertTrue(boo < 0);
+		assertEquals(boo, v.id("boo"));
+		assertEquals(0, v.id("moo"));
+		assertEquals(2, v.size());
+		assertNull(v.token(boo));
+	}
+
+	@Test
+	public void testIds() {
+		Vocabulary v = new Vocabulary();
+		assertArrayEquals(new int[]{0, 1, 0, 2},
+				v.ids(Arrays.asList("jane", "austen", "jane", "émma")));
+		assertArrayEquals(new int[0], v.ids(Arrays.asList()));
+	}
+
+	@Test
+	public void testSets() {
+		assertArrayEquals(new int[]{1, 3, 7},
+				Vocabulary.distinct(new int[]{7, 1, 3, 1, 7}));
+		assertArrayEquals(new int[0], Vocabulary.distinct(new int[0]));
+		assertEquals(2, Vocabulary.overlap(new int[]{1, 3, 7}, new int[]{0, 3, 7, 9}));
+		assertEquals(0, Vocabulary.overlap(new int[]{1, 3, 7}, new int[0]));
+	}
+
+	@Test
+	public void testGrams() {
+		assertNotEquals(Vocabulary.bigram(1, 2), Vocabulary.bigram(2, 1));
+		assertNotEquals(Vocabulary.bigram(0, -1), Vocabulary.bigram(-1, 0));
+		assertNotEquals(Vocabulary.trigram(1, 2, 3), Vocabulary.trigram(3, 2, 1));
+	}
+
+}
@@ -0,0 +1,289 @@
+package edu.uncc.cs.watsonsim.nlp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fusesource.lmdbjni.Constants.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.Env;
+import org.fusesource.lmdbjni.Transaction;
+
+import com.carrotsearch.hppc.FloatArrayList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.uncc.cs.watsonsim.KV;
+import edu.uncc.cs.watsonsim.Metrics;
+
+/**
+ * A read-only table of word vectors (like GloVe), memory-mapped rather than
+ * looked up in LMDB.
+ * <p>
+ * Looking up a word in LMDB costs a transaction and a new float[] every
+ * time, and DenseVectors does it for every token of every question and
+ * answer. Here the vectors are one big matrix in a memory-mapped file (see
+ * MappedRows), and the vocabulary is a compact hash table (see
+ * StringIndex). Words are looked up once, as a row number, and then the
+ * row can be used in place: dot products, norms and sums never copy it.
+ * The most recently used words are also kept as float[]s, for vectorFor().
+ * <p>
+ * The table is a directory with these files:
+ * <pre>
+ * vectors.bin  the vectors, as little-endian floats (memory-mapped)
+ * norms.bin    the length of each vector (loaded in the heap)
+ * words.bin    a header, then the word for each vector (loaded in the heap)
+ * </pre>
+ * Import it from LMDB (the big-glove table DenseVectors uses) or a GloVe
+ * text file with:
+ * <pre>
+ * WordVectorTable import-lmdb
+ * WordVectorTable import-glove glove.840B.300d.txt
+ * </pre>
+ *
+ * @author Sean Gallagher
+ */
+public class WordVectorTable {
+	public static final Path DEFAULT_LOCATION = Paths.get("data/big-glove.vectors");
+	private static final int MAGIC = 0x57535756; // "WSWV"
+	private static final int FORMAT = 1;
+	/** How many words to keep as float[]s */
+	private static final int HOT_WORDS = 100000;
+
+	private final MappedRows vectors;
+	private final float[] norms;
+	private final StringIndex words;
+	private final Cache<String, Optional<float[]>> hot = CacheBuilder.newBuilder()
+			.maximumSize(HOT_WORDS)
+			.recordStats()
+			.build();
+
+	/**
+	 * Open a table that was already imported.
+	 * @param dir	The table directory
+	 */
+	public WordVectorTable(Path dir) throws IOException {
+		int dim, rows;
+		StringStack stack = new StringStack();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(dir.resolve("words.bin"))))) {
+			if (readInt(in) != MAGIC || readInt(in) != FORMAT)
+				throw new IOException(dir + " is not a word vector table, or is too old.");
+			dim = readInt(in);
+			rows = readInt(in);
+			byte[] buf = new byte[256];
+			for (int i=0; i<rows; i++) {
+				int len = readInt(in);
+				if (len > buf.length) buf = new byte[len];
+				in.readFully(buf, 0, len);
+				stack.add(new String(buf, 0, len, UTF_8));
+			}
+		}
+		words = new StringIndex(stack);
+		vectors = new MappedRows(dir.resolve("vectors.bin"), 0, rows, dim);
+		norms = new float[rows];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(dir.resolve("norms.bin"))))) {
+			for (int i=0; i<rows; i++) norms[i] = Float.intBitsToFloat(readInt(in));
+		}
+		Metrics.cache("word_vectors", hot);
+	}
+
+	/**
+	 * Open the table in a directory, if it has been imported there.
+	 * Failing to open it is reported but not fatal.
+	 */
+	public static Optional<WordVectorTable> openIfPresent(Path dir) {
+		if (!Files.exists(dir.resolve("words.bin"))) return Optional.empty();
+		try {
+			return Optional.of(new WordVectorTable(dir));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return Optional.empty();
+		}
+	}
+
+	/** How many words there are */
+	public int size() {
+		return vectors.rows();
+	}
+
+	/** How long each vector is */
+	public int dim() {
+		return vectors.cols();
+	}
+
+	/**
+	 * Find a word's row
+	 * @return The row, or -1 if there's no vector for the word
+	 */
+	public int row(String word) {
+		return words.get(word);
+	}
+
+	/** The length of a row's vector */
+	public double norm(int row) {
+		return norms[row];
+	}
+
+	/** The dot product of a row with a vector, in place */
+	public double dot(int row, float[] vec) {
+		return vectors.dot(row, vec);
+	}
+
+	/** The cosine similarity of two rows, in place */
+	public double sim(int a, int b) {
+		double denominator = norms[a] * (double) norms[b];
+		return denominator == 0 ? 0 : vectors.dot(a, b) / denominator;
+	}
+
+	/** Add a row to a vector (out += row), in place */
+	public void addTo(int row, float[] out) {
+		vectors.addTo(row, out);
+	}
+
+	/**
+	 * Get a copy of a word's vector, if it has one. Recently used words
+	 * are cached, so the same array may be returned again: don't change it.
+	 */
+	public Optional<float[]> vectorFor(String word) {
+		Optional<float[]> vector = hot.getIfPresent(word);
+		if (vector == null) {
+			int row = row(word);
+			if (row >= 0) {
+				float[] out = new float[dim()];
+				vectors.get(row, out);
+				vector = Optional.of(out);
+			} else {
+				vector = Optional.empty();
+			}
+			hot.put(word, vector);
+		}
+		return vector;
+	}
+
+	/*
+	 * Importing
+	 */
+
+	/** Write a table one word at a time */
+	static final class Writer implements AutoCloseable {
+		private final Path dir;
+		private final int dim;
+		private final DataOutputStream vectors_out;
+		private final StringStack words = new StringStack();
+		private final FloatArrayList norms = new FloatArrayList();
+
+		Writer(Path dir, int dim) throws IOException {
+			this.dir = dir;
+			this.dim = dim;
+			Files.createDirectories(dir);
+			vectors_out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("vectors.bin")), 1 << 16));
+		}
+
+		/** Add a word. Vectors of the wrong length are padded or cut. */
+		void add(String word, float[] vector) throws IOException {
+			float[] v = Arrays.copyOf(vector, dim);
+			double norm = 0;
+			for (float f : v) {
+				writeInt(vectors_out, Float.floatToIntBits(f));
+				norm += f * f;
+			}
+			words.add(word);
+			norms.add((float) Math.sqrt(norm));
+		}
+
+		@Override
+		public void close() throws IOException {
+			vectors_out.close();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("norms.bin"))))) {
+				for (int i=0; i<norms.size(); i++)
+					writeInt(out, Float.floatToIntBits(norms.get(i)));
+			}
+			// Words last, since they mark the table as complete
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("words.bin"))))) {
+				writeInt(out, MAGIC);
+				writeInt(out, FORMAT);
+				writeInt(out, dim);
+				writeInt(out, words.size());
+				for (String word : words) {
+					byte[] bytes = word.getBytes(UTF_8);
+					writeInt(out, bytes.length);
+					out.write(bytes);
+				}
+			}
+		}
+	}
+
+	/** Import the big-glove table from the LMDB store in data/lmdb */
+	public static void importLMDB(Path dir) throws IOException {
+		try (Env env = new Env();
+				Writer writer = new Writer(dir, DenseVectors.N)) {
+			env.open("data/lmdb", RDONLY);
+			try (Transaction tx = env.createReadTransaction();
+					Database db = env.openDatabase(tx, "big-glove", 0)) {
+				for (Entry e : db.iterate(tx).iterable()) {
+					writer.add(string(e.getKey()), KV.asVector(e.getValue()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Import a GloVe text file, where each line is a word and its numbers,
+	 * separated by spaces. The length of the first vector sets the length of
+	 * all of them, so words containing spaces are read correctly.
+	 */
+	public static void importGloVe(Path glove, Path dir) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(glove, UTF_8)) {
+			String line = in.readLine();
+			if (line == null) throw new IOException(glove + " is empty.");
+			int dim = line.split(" ").length - 1;
+			try (Writer writer = new Writer(dir, dim)) {
+				for (; line != null; line = in.readLine()) {
+					String[] parts = line.split(" ");
+					if (parts.length <= dim) continue;
+					int word_parts = parts.length - dim;
+					String word = String.join(" ", Arrays.copyOf(parts, word_parts));
+					float[] v = new float[dim];
+					for (int i=0; i<dim; i++) v[i] = Float.parseFloat(parts[word_parts + i]);
+					writer.add(word, v);
+				}
+			}
+		}
+	}
+
+	/* The files are little-endian, like the vectors in LMDB. */
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static void writeInt(DataOutputStream out, int x) throws IOException {
+		out.writeInt(Integer.reverseBytes(x));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("import-lmdb")) {
+			importLMDB(DEFAULT_LOCATION);
+		} else if (args.length > 1 && args[0].equals("import-glove")) {
+			importGloVe(Paths.get(args[1]), DEFAULT_LOCATION);
+		} else {
+			System.out.println("Usage: WordVectorTable import-lmdb\n"
+					+ "       WordVectorTable import-glove (glove text file)");
+		}
+	}
+}
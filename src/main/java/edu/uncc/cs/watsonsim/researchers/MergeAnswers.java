@@ -1,11 +1,12 @@
 package edu.uncc.cs.watsonsim.researchers;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
+import edu.uncc.cs.watsonsim.nlp.Vocabulary;
 
 /*Author : Ricky Sanders
  * 
@@ -24,20 +25,17 @@ public class MergeAnswers extends Researcher{
 		// Arrange the answers into blocks
 		each_answer:
 		for (Answer original : answers) {
-            HashSet<String> original_terms = new HashSet<String>();
-            original_terms.addAll(original.getTokens());
-            //return reference_terms.containsAll(StringUtils.tokenize(reference));
+			// Both sets are sorted arrays of distinct token numbers
+			int[] original_terms = original.memo(Phrase.tokenIdSet);
 			for (List<Answer> block : answer_blocks) {
 				for (Answer example : block) {
-		            HashSet<String> example_terms = new HashSet<String>();
-		            example_terms.addAll(example.getTokens());
+					int[] example_terms = example.memo(Phrase.tokenIdSet);
 					// Look through the examples in this topic
 					// If it matches, choose to put it in this block and quit.
 		            
-		            int sizeExample = example_terms.size();
+		            int sizeExample = example_terms.length;
 		            
-		            example_terms.retainAll(original_terms);
-		            int count = example_terms.size();
+		            int count = Vocabulary.overlap(example_terms, original_terms);
 		            
 		            double percentCorrect = count/(sizeExample + 0.01);
 
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.regex.Matcher;
 
 import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Budget.Stage;
 import edu.uncc.cs.watsonsim.Environment;
 import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Question;
@@ -24,17 +25,23 @@ public class PassageRetrieval extends Researcher {
 	@Override
 	public List<Answer> question(Question q, List<Answer> answers) {
 		
-		int total_passages = answers.stream().mapToInt(a -> {
+		int total_passages = 0;
+		for (int i=0; i<answers.size(); i++) {
+			// Support is proportional to the candidates, so stop when out of time
+			if (!q.budget.has(Stage.PASSAGE_RETRIEVAL)) {
+				q.budget.skip(Stage.PASSAGE_RETRIEVAL,
+						"truncated after " + i + " of " + answers.size());
+				break;
+			}
+			Answer a = answers.get(i);
 			// Query every engine
-			int count = 0;
 	    	for (Searcher s : searchers) {
 	    		List<Passage> passages = s.query(
 	    				q.text + " " + Matcher.quoteReplacement(a.text));
 	    		a.passages.addAll(passages);
-	    		count += passages.size();
+	    		total_passages += passages.size();
 	    	}
-	    	return count;
-		}).sum();
+		}
 	    	
 		
 		q.log.info("Found " + total_passages + " supporting passages.");
@@ -5,6 +5,7 @@ import java.util.List;
 
 import edu.uncc.cs.watsonsim.Answer;
 import edu.uncc.cs.watsonsim.Log;
+import edu.uncc.cs.watsonsim.Metrics;
 import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
 
@@ -54,7 +55,11 @@ abstract public class Researcher {
 	 * Wrapper method to pull questions through the research chain
 	 */
 	public List<Answer> pull(Question q, List<Answer> candidates) {
-		return question(q, chain.pull(q, candidates));
+		List<Answer> researched = chain.pull(q, candidates);
+		try (Metrics.Split s = Metrics.timer("researcher",
+				getClass().getSimpleName()).start()) {
+			return question(q, researched);
+		}
 	}
 
 	/** Default implementation of research for a question.
@@ -6,7 +6,9 @@ import java.util.List;
 
 import edu.stanford.nlp.util.Pair;
 import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Budget.Stage;
 import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Metrics;
 import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
@@ -30,7 +32,11 @@ public class TagLAT extends Researcher {
 	}
 	
 	public List<Answer> pull(Question q, List<Answer> answers, int depth) {
-		return question(q, chain.pull(q, answers), depth);
+		List<Answer> researched = chain.pull(q, answers);
+		try (Metrics.Split s = Metrics.timer("researcher",
+				"TagLAT.depth" + depth).start()) {
+			return question(q, researched, depth);
+		}
 	}
 	
 	
@@ -45,39 +51,54 @@ public class TagLAT extends Researcher {
 		
 		List<Answer> suggestions = new ArrayList<>();
 		
-		for (Answer a: answers) {
+		for (int i=0; i<answers.size(); i++) {
+			Answer a = answers.get(i);
 			
 			// Handle DBPedia types
+			// Each one is a SPARQL query, so stop when out of time
 			
-			a.lexical_types = dbpedia.viaDBPedia(a.text);
-			for (String type: a.lexical_types) {
-				a.log(this, "DBPedia says it's a %s", type);
+			if (q.budget.has(Stage.DBPEDIA_TYPES)) {
+				a.lexical_types = dbpedia.viaDBPedia(a.text);
+				for (String type: a.lexical_types) {
+					a.log(this, "DBPedia says it's a %s", type);
+				}
+				if (a.lexical_types.isEmpty())
+					a.log(this, "DBPedia has no type information for it.");
+				dbpedia_types += a.lexical_types.size(); 
+			} else {
+				q.budget.skip(Stage.DBPEDIA_TYPES,
+						"truncated after " + i + " of " + answers.size());
+				// The support types may still be added to it
+				a.lexical_types = new ArrayList<>(a.lexical_types);
 			}
-			if (a.lexical_types.isEmpty())
-				a.log(this, "DBPedia has no type information for it.");
-			dbpedia_types += a.lexical_types.size(); 
 			
 			// Handle Support types
+			// Each passage needs a parse, so stop when out of time
 			
-			for (Passage p: a.passages) {
-				List<Pair<String, String>> types = p.memo(SupportCandidateType::extract);
-				for (Pair<String, String> name_and_type : types) {
-					Phrase name = new Phrase(name_and_type.first);
-					Phrase type = new Phrase(name_and_type.second);
-					if (syn.implies(a, name)) {
-						a.log(this, "Passage %s says it's a %s.", p.reference, type);
-						a.lexical_types.add(type.text);
-						support_types++;
-					} else if (syn.implies(type, new Phrase(q.memo(ClueType::fromClue)))) {
-						Answer suggestion = new Answer(name.text);
-						suggestion.lexical_types = Arrays.asList(type.text);
-						suggestion.log(this, "Found it's a %s, while reading about %s in %s", type, a, p.reference);
-						if (!(suggestions.contains(suggestion)
-								|| answers.contains(suggestion))) {
-							log.info("Suggesting " + name);
-							suggestions.add(suggestion);
-						}
+			if (!q.budget.has(Stage.SUPPORT_TYPES)) {
+				q.budget.skip(Stage.SUPPORT_TYPES,
+						"truncated after " + i + " of " + answers.size());
+			} else {
+				for (Passage p: a.passages) {
+					List<Pair<String, String>> types = p.memo(SupportCandidateType::extract);
+					for (Pair<String, String> name_and_type : types) {
+						Phrase name = new Phrase(name_and_type.first);
+						Phrase type = new Phrase(name_and_type.second);
+						if (syn.implies(a, name)) {
+							a.log(this, "Passage %s says it's a %s.", p.reference, type);
+							a.lexical_types.add(type.text);
+							support_types++;
+						} else if (syn.implies(type, new Phrase(q.memo(ClueType::fromClue)))) {
+							Answer suggestion = new Answer(name.text);
+							suggestion.lexical_types = Arrays.asList(type.text);
+							suggestion.log(this, "Found it's a %s, while reading about %s in %s", type, a, p.reference);
+							if (!(suggestions.contains(suggestion)
+									|| answers.contains(suggestion))) {
+								log.info("Suggesting " + name);
+								suggestions.add(suggestion);
+							}
 						
+						}
 					}
 				}
 			}
@@ -2,7 +2,6 @@ package edu.uncc.cs.watsonsim.researchers;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
-import com.google.gson.reflect.TypeToken;
 
 import crawlercommons.fetcher.BaseFetchException;
 import crawlercommons.fetcher.http.SimpleHttpFetcher;
@@ -12,6 +11,7 @@ import de.l3s.boilerpipe.extractors.ArticleExtractor;
 import edu.uncc.cs.watsonsim.Answer;
 import edu.uncc.cs.watsonsim.Environment;
 import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.PersistentCache;
 import edu.uncc.cs.watsonsim.Phrase;
 
 
@@ -61,7 +61,7 @@ public class URLExpander extends Researcher {
 				// Download
 				String payload = env.computeIfAbsent("url:"+p.reference,
 						this::fetch,
-						new TypeToken<String>(){}.getType());
+						PersistentCache.STRING);
 				if (!payload.isEmpty()) {
 					// Parse
 					p = new Passage(
@@ -8,7 +8,11 @@ import edu.uncc.cs.watsonsim.Question;
  * @author Sean Gallagher
  */
 public class AnswerLength extends AnswerScorer {
-	
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public double scoreAnswer(Question q, Answer a) {
 		return a.text.length();
 	}
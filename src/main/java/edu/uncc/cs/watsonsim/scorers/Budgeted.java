@@ -0,0 +1,53 @@
+package edu.uncc.cs.watsonsim.scorers;
+
+import java.util.List;
+
+import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Budget;
+import edu.uncc.cs.watsonsim.Question;
+
+/**
+ * Run an expensive Scorer only while the question's {@link Budget} still has
+ * time for its stage. Otherwise its scores keep their defaults, and the
+ * stage is recorded as skipped.
+ * <p>
+ * ParallelScorer starts every Scorer at once, so checking only at the start
+ * would give every stage the same remaining time. Instead the budget is
+ * checked before each answer, and as time runs out the stages with the
+ * largest reserve stop first, even while they all run together. So the
+ * Scorer must score each answer on its own, as AnswerScorer and
+ * PassageScorer do.
+ *
+ * @author Sean Gallagher
+ */
+public class Budgeted implements Scorer {
+	private final Budget.Stage stage;
+	private final Scorer scorer;
+
+	public Budgeted(Budget.Stage stage, Scorer scorer) {
+		this.stage = stage;
+		this.scorer = scorer;
+	}
+
+	/** The Scorer that runs while there is time */
+	public Scorer getScorer() {
+		return scorer;
+	}
+
+	@Override
+	public boolean splittable() {
+		return scorer.splittable();
+	}
+
+	@Override
+	public void scoreQuestion(Question q, List<Answer> answers) {
+		for (int i=0; i<answers.size(); i++) {
+			if (!q.budget.has(stage)) {
+				q.budget.skip(stage, i == 0 ? "skipped"
+						: "truncated after " + i + " of " + answers.size());
+				return;
+			}
+			scorer.scoreQuestion(q, answers.subList(i, i+1));
+		}
+	}
+}
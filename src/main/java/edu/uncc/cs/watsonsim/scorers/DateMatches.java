@@ -12,6 +12,11 @@ import edu.uncc.cs.watsonsim.nlp.ClueType;
  * @author Sean
  */
 public class DateMatches extends AnswerScorer {
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public static boolean maybeMonth(String in) {
 		return in.matches("(Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec)\\.?\\w*"
 				+ "|\\d{1,2}");
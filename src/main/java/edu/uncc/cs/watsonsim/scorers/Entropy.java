@@ -12,6 +12,12 @@ import edu.uncc.cs.watsonsim.nlp.ApproxStringIntMap;
 import edu.uncc.cs.watsonsim.nlp.StringStack;
 
 public class Entropy extends AnswerScorer {
+	/** The table is read-only once loaded, so answers may be split */
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	// This is a custom approach for about a 10-fold reduction in memory
 	private static final double mult = 2<<20;
 	private static ApproxStringIntMap dict = new ApproxStringIntMap(new StringStack());
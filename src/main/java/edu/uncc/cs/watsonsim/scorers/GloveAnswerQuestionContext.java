@@ -1,9 +1,6 @@
 package edu.uncc.cs.watsonsim.scorers;
 
-import java.util.List;
-import java.util.stream.Collectors;
 import edu.uncc.cs.watsonsim.Answer;
-import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
 import edu.uncc.cs.watsonsim.nlp.DenseVectors;
 
@@ -11,23 +8,19 @@ import edu.uncc.cs.watsonsim.nlp.DenseVectors;
  * Returns the total context similarity between the answer and question.
  * The algorithm it uses is simply the mean of the word vectors (not really a
  * great solution, better with short questions / answers)
+ * The question's vector is memoized, so it is only found once per question.
  */
 public class GloveAnswerQuestionContext extends AnswerScorer {
-	
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	@Override
 	public double scoreAnswer(Question q, Answer a) {
-		List<float[]> qtokens = q.memo(Phrase.simpleTokens)
-				.stream().map(DenseVectors::vectorFor)
-				.filter(v -> v.isPresent())
-				.map(v ->v.get())
-				.collect(Collectors.toList());
-		List<float[]> atokens = a.memo(Phrase.simpleTokens)
-				.stream().map(DenseVectors::vectorFor)
-				.filter(v -> v.isPresent())
-				.map(v -> v.get())
-				.collect(Collectors.toList());
-		
-		return DenseVectors.sim(DenseVectors.mean(atokens), DenseVectors.mean(qtokens));	
+		return DenseVectors.sim(
+				a.memo(DenseVectors.meanVector), a.memo(DenseVectors.meanVectorNorm),
+				q.memo(DenseVectors.meanVector), q.memo(DenseVectors.meanVectorNorm));
 	}
 	
 }
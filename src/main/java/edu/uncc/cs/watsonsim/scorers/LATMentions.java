@@ -10,7 +10,11 @@ import edu.uncc.cs.watsonsim.scorers.AnswerScorer;
  *
  */
 public class LATMentions extends AnswerScorer {
-	
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	@Override
 	public double scoreAnswer(Question q, Answer a) {
 		return a.lexical_types.size();
@@ -0,0 +1,206 @@
+package edu.uncc.cs.watsonsim.scorers;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.Phrase;
+import edu.uncc.cs.watsonsim.Question;
+import edu.uncc.cs.watsonsim.StringUtils;
+
+/**
+ * Compute the lexical passage features together, in one pass per passage.
+ * <p>
+ * NGram, SkipBigram, PassageTermMatch, WordProximity and AnswerInPassage
+ * each tokenized the passage again for every answer, and built its n-grams
+ * again too. This scorer memoizes what it needs on each Phrase instead, so
+ * each passage is tokenized once, and the features that depend only on the
+ * passage are found once per passage. Trigrams are compared by their token
+ * numbers (see Phrase.tokenIds) rather than as strings.
+ * <p>
+ * The scores have the same names and the same values as those scorers give
+ * them (NGRAM, NGRAM_MAX, SKIP_BIGRAM_MEAN, and so on), so use this in
+ * their place. That includes their quirks: PASSAGE_TERM_MATCH counts terms
+ * inside longer words, and SKIP_BIGRAM joins its pairs without a space.
+ *
+ * @author Sean Gallagher
+ */
+public class LexicalFeatures implements Scorer {
+	/** Each call keeps its state in locals, so answers may be split */
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
+	/** The features this can compute, named for the scores they make */
+	public enum Feature {
+		NGRAM, SKIP_BIGRAM, PASSAGE_TERM_MATCH, WORD_PROXIMITY, ANSWER_IN_PASSAGE
+	}
+
+	private final Set<Feature> features;
+	// Indexed by Feature.ordinal(). Null for features left out.
+	private final String[][] names = new String[Feature.values().length][];
+
+	/**
+	 * Compute some of the lexical features.
+	 * Only these features' scores are registered and written.
+	 */
+	public LexicalFeatures(Feature... features) {
+		this.features = features.length == 0
+				? EnumSet.noneOf(Feature.class)
+				: EnumSet.copyOf(Arrays.asList(features));
+		for (Feature f : this.features)
+			names[f.ordinal()] = PassageScorer.register(f.name());
+	}
+
+	/** Compute all of the lexical features */
+	public LexicalFeatures() {
+		this(Feature.values());
+	}
+
+	/**
+	 * The Lucene tokens of a phrase joined by spaces, for substring matches
+	 */
+	static final Function<Phrase, String> joinedTokens = LexicalFeatures::_joinedTokens;
+	private static String _joinedTokens(Phrase p) {
+		return String.join(" ", p.getTokens());
+	}
+
+	/**
+	 * The distinct pairs of adjacent Lucene tokens of a phrase, each pair
+	 * concatenated without a space, as SkipBigram has always made them
+	 */
+	static final Function<Phrase, Set<String>> concatBigrams = LexicalFeatures::_concatBigrams;
+	private static Set<String> _concatBigrams(Phrase p) {
+		List<String> terms = p.getTokens();
+		Set<String> bigrams = new HashSet<>();
+		for (int ti=0; ti<terms.size()-1; ti++)
+			bigrams.add(terms.get(ti) + terms.get(ti+1));
+		return bigrams;
+	}
+
+	/**
+	 * The distinct words of a phrase, split on non-word characters
+	 */
+	static final Function<Phrase, Set<String>> wordSet = LexicalFeatures::_wordSet;
+	private static Set<String> _wordSet(Phrase p) {
+		return new HashSet<>(p.memo(Phrase.simpleTokens));
+	}
+
+	/**
+	 * Count the answer's trigrams (including repeats) also found in a
+	 * passage, like NGram does. Lucene tokens have no spaces, so comparing
+	 * token numbers is the same as comparing the joined trigrams (unless the
+	 * Vocabulary is full, when new tokens may rarely share a number).
+	 */
+	static int trigramMatches(int[] answer, int[] passage) {
+		final int grams = Math.max(0, answer.length - 2);
+		final boolean[] found = new boolean[grams];
+		int matches = 0;
+		for (int i=0; i+2 < passage.length && matches < grams; i++) {
+			for (int j=0; j<grams; j++) {
+				if (!found[j] && answer[j] == passage[i]
+						&& answer[j+1] == passage[i+1]
+						&& answer[j+2] == passage[i+2]) {
+					found[j] = true;
+					matches++;
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Count the answer's bigrams also found in a passage, like SkipBigram
+	 * does. Both are from concatBigrams.
+	 */
+	static int bigramMatches(Set<String> answer, Set<String> passage) {
+		int matches = 0;
+		for (String gram : answer) if (passage.contains(gram)) matches++;
+		return matches;
+	}
+
+	/**
+	 * Count how many times question tokens occur in a passage, like
+	 * PassageTermMatch does. Tokens match anywhere in the passage, even
+	 * inside longer words.
+	 * @param question	The question's Lucene tokens
+	 * @param passage	The passage's joinedTokens
+	 */
+	static int termMatches(List<String> question, String passage) {
+		int matches = 0;
+		for (String term : question)
+			matches += StringUtils.countMatches(passage, term);
+		return matches;
+	}
+
+	/**
+	 * Sum the log distance between question words in a passage, like
+	 * WordProximity does.
+	 */
+	static double proximity(Set<String> question, List<String> passage) {
+		double distance = 1;
+		double average_log_distance = 0;
+		for (String w : passage) {
+			if (question.contains(w)) {
+				average_log_distance += Math.log(distance);
+				distance = 1;
+			} else {
+				distance++;
+			}
+		}
+		return average_log_distance;
+	}
+
+	@Override
+	public void scoreQuestion(Question q, List<Answer> answers) {
+		final boolean ngram = features.contains(Feature.NGRAM),
+				skip_bigram = features.contains(Feature.SKIP_BIGRAM),
+				term_match = features.contains(Feature.PASSAGE_TERM_MATCH),
+				proximity = features.contains(Feature.WORD_PROXIMITY),
+				in_passage = features.contains(Feature.ANSWER_IN_PASSAGE);
+		final List<String> q_tokens = term_match ? q.getTokens() : null;
+		final Set<String> q_words = proximity ? q.memo(wordSet) : null;
+		// Features of the passage alone: term matches, then proximity
+		final Map<Passage, double[]> by_passage = new IdentityHashMap<>();
+
+		for (Answer a : answers) {
+			final int p_count = a.passages.size();
+			if (p_count == 0) continue;
+			final int[] a_tokens = ngram ? a.memo(Phrase.tokenIds) : null;
+			final Set<String> a_bigrams = skip_bigram ? a.memo(concatBigrams) : null;
+			final double[][] scores = new double[Feature.values().length][p_count];
+
+			for (int pi=0; pi<p_count; pi++) {
+				final Passage p = a.passages.get(pi);
+				final double[] alone = by_passage.computeIfAbsent(p, x -> new double[]{
+						term_match ? termMatches(q_tokens, x.memo(joinedTokens)) : 0,
+						proximity ? proximity(q_words, x.memo(Phrase.simpleTokens)) : 0});
+
+				if (ngram)
+					scores[Feature.NGRAM.ordinal()][pi] =
+						trigramMatches(a_tokens, p.memo(Phrase.tokenIds));
+				if (skip_bigram)
+					scores[Feature.SKIP_BIGRAM.ordinal()][pi] =
+						bigramMatches(a_bigrams, p.memo(concatBigrams));
+				scores[Feature.PASSAGE_TERM_MATCH.ordinal()][pi] = alone[0];
+				scores[Feature.WORD_PROXIMITY.ordinal()][pi] = alone[1];
+				if (in_passage)
+					scores[Feature.ANSWER_IN_PASSAGE.ordinal()][pi] =
+						p.text.contains(a.text) ? 1 : 0;
+
+				for (Feature f : features)
+					p.score(f.name(), scores[f.ordinal()][pi]);
+			}
+			for (Feature f : features)
+				PassageScorer.summarize(a, names[f.ordinal()], scores[f.ordinal()]);
+		}
+	}
+}
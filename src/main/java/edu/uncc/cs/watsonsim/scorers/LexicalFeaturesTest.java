@@ -0,0 +1,89 @@
+package edu.uncc.cs.watsonsim.scorers;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.Question;
+
+public class LexicalFeaturesTest {
+	private static final String[] NAMES = {"NGRAM", "SKIP_BIGRAM",
+		"PASSAGE_TERM_MATCH", "WORD_PROXIMITY", "ANSWER_IN_PASSAGE"};
+	/*
+	 * What the original scorers gave each passage, worked out by hand.
+	 * The question's tokens are novelist, wrote, book and emma.
+	 * The third passage has "emma" in "emmanuel", "book" in "bookbinder"
+	 * and "wrote" in "rewrote", which all count as term matches. And
+	 * "jan" + "eausten" joins into the same bigram as "jane" + "austen".
+	 */
+	private static final double[][] EXPECTED = {
+		{0, 1, 4, Math.log(2) + Math.log(4), 1},
+		{0, 1, 1, Math.log(11), 1},
+		{0, 1, 5, Math.log(6), 0}};
+
+	private static Question question() {
+		return new Question("This novelist wrote the book Emma");
+	}
+
+	private static Answer answer() {
+		Answer a = new Answer("Jane Austen");
+		a.passages.add(new Passage("test", "Emma",
+				"Romantic novelist Jane Austen once wrote the book Emma.", "1"));
+		a.passages.add(new Passage("test", "Pride and Prejudice",
+				"Pride and Prejudice is a novel by Jane Austen, a novelist.", "2"));
+		a.passages.add(new Passage("test", "Bookbinding",
+				"The bookbinder Jan Eausten rewrote Emma, Emma and Emmanuel.", "3"));
+		return a;
+	}
+
+	private static void assertExpected(Answer a) {
+		for (int f=0; f<NAMES.length; f++) {
+			double sum = 0;
+			for (int i=0; i<EXPECTED.length; i++) {
+				assertEquals(NAMES[f], EXPECTED[i][f],
+						a.passages.get(i).scores.get(NAMES[f]), 1e-9);
+				sum += EXPECTED[i][f];
+			}
+			assertEquals(NAMES[f], sum / EXPECTED.length,
+					a.scores.get(NAMES[f] + "_MEAN"), 1e-9);
+		}
+	}
+
+	@Test
+	public void testFused() {
+		Answer a = answer();
+		new LexicalFeatures().scoreQuestion(question(), Arrays.asList(a));
+		assertExpected(a);
+		assertEquals(4.0, a.scores.get("PASSAGE_TERM_MATCH_MEDIAN"), 0);
+	}
+
+	@Test
+	public void testScorers() {
+		Answer a = answer();
+		for (PassageScorer s : new PassageScorer[]{new NGram(), new SkipBigram(),
+				new PassageTermMatch(), new WordProximity(), new AnswerInPassage()})
+			s.scoreQuestion(question(), Arrays.asList(a));
+		assertExpected(a);
+	}
+
+	@Test
+	public void testTrigrams() {
+		Question q = question();
+		Passage novels = new Passage("test", "", "A novel novel novel.", "1");
+		// Repeated trigrams count once each
+		Answer a = new Answer("novel novel novel novel");
+		assertEquals(2.0, new NGram().scorePassage(q, a, novels), 0);
+		assertEquals(0.0, new NGram().scorePassage(q, a,
+				new Passage("test", "", "Novel novel.", "2")), 0);
+		Answer pride = new Answer("Pride and Prejudice novel");
+		assertEquals(1.0, new NGram().scorePassage(q, pride, answer().passages.get(1)), 0);
+		a.passages.add(novels);
+		new LexicalFeatures().scoreQuestion(q, Arrays.asList(a));
+		assertEquals(2.0, novels.scores.get("NGRAM"), 0);
+	}
+
+}
@@ -8,6 +8,10 @@ import edu.uncc.cs.watsonsim.Phrase;
  * Take advantage of the Scorer dimension reduction for Lucene passages
  */
 public class LuceneEcho extends PassageScorer {
+	@Override
+	public boolean splittable() {
+		return true;
+	}
 
 	@Override
 	public double scorePassage(Phrase q, Answer a, Passage p) {
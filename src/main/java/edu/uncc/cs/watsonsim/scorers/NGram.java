@@ -10,19 +10,17 @@ import java.util.List;
 import edu.uncc.cs.watsonsim.Answer;
 import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Phrase;
-import edu.uncc.cs.watsonsim.StringUtils;
 
 public class NGram extends PassageScorer {
+	/**
+	 * Count the answer's trigrams that are also in the passage.
+	 * {@link LexicalFeatures} computes this along with several others.
+	 */
 	public double scorePassage(Phrase q, Answer a, Passage p) {
 		// Jane Austen
-		List<String> a_set = generateNgrams(3, StringUtils.tokenize(a.text));
-		
 		// Romantic novelist Jane Austen once wrote -the- book Emma.
-		List<String> p_set = generateNgrams(3, p.getTokens());
-		
-		a_set.retainAll(p_set);
-		return a_set.size();
-			
+		return LexicalFeatures.trigramMatches(
+				a.memo(Phrase.tokenIds), p.memo(Phrase.tokenIds));
 	}
 	public static List<String> generateNgrams(int n, List<String> words) {
         List<String> ngrams = new ArrayList<String>();
@@ -0,0 +1,121 @@
+package edu.uncc.cs.watsonsim.scorers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Metrics;
+import edu.uncc.cs.watsonsim.Question;
+
+/**
+ * Run many Scorers over the same question concurrently.
+ * <p>
+ * Every Scorer is a separate task, and with large candidate lists the work
+ * of a {@link Scorer#splittable() splittable} Scorer can be split further
+ * into blocks of answers. The tasks run on a thread pool of their own
+ * (several scorers block on the database or LMDB, which would starve the
+ * common fork-join pool), so the scoring phase takes about as long as the
+ * total work divided by the number of threads, rather than the sum of every
+ * scorer. This depends on the Scorers honoring the contract in
+ * {@link Scorer}.
+ * <p>
+ * The block size is read from config.properties as scorer_block_size
+ * (answers per task). Zero, the default, never splits a Scorer's work.
+ * The pool has scorer_threads threads (by default, one per core), shared by
+ * every ParallelScorer in the process.
+ * Each task is timed in {@link Metrics}, under "scorer".
+ *
+ * @author Sean Gallagher
+ */
+public class ParallelScorer implements Scorer {
+	private final Scorer[] scorers;
+	private final int block_size;
+	private final ExecutorService pool;
+	private static ExecutorService shared_pool;
+
+	public ParallelScorer(Environment env, Scorer... scorers) {
+		this.scorers = scorers;
+		this.block_size = Integer.parseInt(
+				env.getConfOrElse("scorer_block_size", "0"));
+		this.pool = scorerPool(Integer.parseInt(env.getConfOrElse(
+				"scorer_threads",
+				String.valueOf(Runtime.getRuntime().availableProcessors()))));
+	}
+
+	/**
+	 * The threads for scoring, created the first time any ParallelScorer
+	 * needs them. Later sizes are ignored.
+	 */
+	private static synchronized ExecutorService scorerPool(int threads) {
+		if (shared_pool == null) {
+			shared_pool = Executors.newFixedThreadPool(threads,
+					new ThreadFactoryBuilder()
+						.setDaemon(true)
+						.setNameFormat("scorer-%d")
+						.build());
+		}
+		return shared_pool;
+	}
+
+	/** A Scorer and the answers it is responsible for in one task */
+	private static class Task implements Callable<Void> {
+		final Scorer scorer;
+		final Question q;
+		final List<Answer> answers;
+		final Metrics.Timer timer;
+		Task(Scorer scorer, Question q, List<Answer> answers) {
+			this.scorer = scorer;
+			this.q = q;
+			this.answers = answers;
+			// Time it under the name of the real scorer, not the wrapper
+			Scorer named = scorer instanceof Budgeted
+					? ((Budgeted) scorer).getScorer() : scorer;
+			this.timer = Metrics.timer("scorer", named.getClass().getSimpleName());
+		}
+		@Override
+		public Void call() {
+			try (Metrics.Split s = timer.start()) {
+				scorer.scoreQuestion(q, answers);
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public void scoreQuestion(Question q, List<Answer> answers) {
+		List<Task> tasks = new ArrayList<>();
+		for (Scorer s : scorers) {
+			if (block_size > 0 && answers.size() > block_size && s.splittable()) {
+				for (int i=0; i<answers.size(); i+=block_size) {
+					tasks.add(new Task(s, q, answers.subList(i,
+							Math.min(i+block_size, answers.size()))));
+				}
+			} else {
+				tasks.add(new Task(s, q, answers));
+			}
+		}
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while scoring", e);
+		} catch (ExecutionException e) {
+			// Fail the same way a scorer run in this thread would have
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -7,6 +7,11 @@ import edu.uncc.cs.watsonsim.Question;
  * @author Sean Gallagher
  */
 public class PassageCount extends AnswerScorer {
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public double scoreAnswer(Question q, Answer a) {
 		return a.passages.size();
 	}
@@ -9,7 +9,11 @@ import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Phrase;
 
 public class PassageQuestionLengthRatio extends PassageScorer {
-	
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public double scorePassage(Phrase q, Answer a, Passage p) {
 		String qs = q.text;
 		//String qst= q.text; //processes question, stopwords, punctuation removed
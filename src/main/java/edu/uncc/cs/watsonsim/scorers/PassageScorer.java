@@ -14,24 +14,47 @@ import edu.uncc.cs.watsonsim.Score;
  *  - Answers
  *  - Passages
  *  By default, a score is NaN.
- *  Scorers are expected to run in parallel. Try to avoid side effects.
- *  Otherwise use "synchronized".
+ *  Scorers run in parallel, so follow the contract in {@link Scorer}.
+ *  Try to avoid side effects. Otherwise use "synchronized".
  */
 public abstract class PassageScorer implements Scorer { 
 	// This is a constructor-less hack to give Researchers a convenient name
 	// It is used for assigning scores.
 	String name;
-	private String max_name, min_name, median_name, mean_name;
+	private String[] names;
 	{
 		name = this.getClass().getSimpleName().replaceAll("([a-z])([A-Z]+)", "$1_$2").toUpperCase();
-		max_name = name+"_MAX";
-		min_name = name+"_MIN";
-		mean_name = name+"_MEAN";
-		median_name = name+"_MEDIAN";
-		Score.register(max_name, -1, Merge.Mean);
-		Score.register(min_name, -1, Merge.Mean);
-		Score.register(mean_name, -1, Merge.Mean);
-		Score.register(median_name, -1, Merge.Mean);
+		names = register(name);
+	}
+	
+	/**
+	 * Register the passage score and the answer summaries of a feature.
+	 * @param name	The name of the passage score, like NGRAM
+	 * @return	The names to pass to summarize()
+	 */
+	static String[] register(String name) {
+		String[] names = {name+"_MAX", name+"_MIN", name+"_MEAN", name+"_MEDIAN"};
+		for (String n : names)
+			Score.register(n, -1, Merge.Mean);
+		return names;
+	}
+	
+	/**
+	 * Summarize the passage scores of one answer as its max, min, mean and
+	 * median. This sorts scores in place.
+	 * @param a		The answer the passages belong to
+	 * @param names	The names from register()
+	 * @param scores	One score for each passage, at least one
+	 */
+	static void summarize(Answer a, String[] names, double[] scores) {
+		final int p_count = scores.length;
+		double sum = 0.0;
+		for (double s : scores) sum += s;
+		Arrays.sort(scores);
+		a.score(names[0], scores[0]);
+		a.score(names[1], scores[p_count - 1]);
+		a.score(names[2], sum/p_count);
+		a.score(names[3], scores[p_count / 2]);
 	}
 
 	/** Default implementation of research for a question.
@@ -42,21 +65,15 @@ public abstract class PassageScorer implements Scorer {
 	 */
 	public void scoreQuestion(Question q, List<Answer> answers) {
 		for (Answer a : answers) {
-			double sum = 0.0;
 			final int p_count = a.passages.size();
 			if (p_count > 0) {
 				double[] scores = new double[p_count];
 				for (int pi=0; pi<p_count; pi++) {
 					Passage p = a.passages.get(pi);
 					scores[pi] = scorePassage(q, a, p); 
-					sum += scores[pi];
 					p.score(name, scores[pi]);
 				}
-				Arrays.sort(scores);
-				a.score(max_name, scores[0]);
-				a.score(min_name, scores[p_count - 1]);
-				a.score(mean_name, sum/p_count);
-				a.score(median_name, scores[p_count / 2]);
+				summarize(a, names, scores);
 			}
 		}
 	}
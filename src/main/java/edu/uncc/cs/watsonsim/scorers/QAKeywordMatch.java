@@ -1,10 +1,10 @@
 package edu.uncc.cs.watsonsim.scorers;
 
-import java.util.List;
+import java.util.Arrays;
 
 import edu.uncc.cs.watsonsim.Answer;
+import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
-import edu.uncc.cs.watsonsim.StringUtils;
 
 /*Author : Ricky Sanders
  * 
@@ -14,13 +14,18 @@ import edu.uncc.cs.watsonsim.StringUtils;
  */
 
 public class QAKeywordMatch extends AnswerScorer {
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public double scoreAnswer(Question q, Answer a){
-		List<String> questionTextArray = StringUtils.tokenize(q.text);
-		List<String> answerTextArray = StringUtils.tokenize(a.text);
+		int[] question = q.memo(Phrase.tokenIds);
+		int[] answer = a.memo(Phrase.tokenIdSet);
 		int count = 0;
-		for (String word : questionTextArray)
-			if (answerTextArray.contains(word))
+		for (int word : question)
+			if (Arrays.binarySearch(answer, word) >= 0)
 				count += 1;
-		return (count / (double)questionTextArray.size());
+		return (count / (double)question.length);
 	}
 }
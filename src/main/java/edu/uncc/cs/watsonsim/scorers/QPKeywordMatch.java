@@ -1,11 +1,10 @@
 package edu.uncc.cs.watsonsim.scorers;
 
-import java.util.List;
+import java.util.Arrays;
 
 import edu.uncc.cs.watsonsim.Answer;
 import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Phrase;
-import edu.uncc.cs.watsonsim.StringUtils;
 
 /*Author : Jacob Medd, Jagan Vujjini
  * 
@@ -21,13 +20,18 @@ import edu.uncc.cs.watsonsim.StringUtils;
  */
 
 public class QPKeywordMatch extends PassageScorer {
-	
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	public double scorePassage(Phrase q, Answer a, Passage p) {
-			List<String> questionTextArray = StringUtils.tokenize(q.text);
+			int[] question = q.memo(Phrase.tokenIds);
+			int[] passage = p.memo(Phrase.tokenIdSet);
 			int count = 0;
-			for (String word : questionTextArray)
-				if (p.getTokens().contains(word))
+			for (int word : question)
+				if (Arrays.binarySearch(passage, word) >= 0)
 					count += 1;
-			return (count / (double)questionTextArray.size());
+			return (count / (double)question.length);
 	}
 }
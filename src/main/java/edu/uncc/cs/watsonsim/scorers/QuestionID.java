@@ -8,6 +8,10 @@ import edu.uncc.cs.watsonsim.Question;
  * @author Sean Gallagher
  */
 public class QuestionID extends AnswerScorer {
+	@Override
+	public boolean splittable() {
+		return true;
+	}
 
 	@Override
 	public double scoreAnswer(Question q, Answer a) {
@@ -5,6 +5,33 @@ import java.util.List;
 import edu.uncc.cs.watsonsim.Answer;
 import edu.uncc.cs.watsonsim.Question;
 
+/**
+ * Scorers generate scores for Answers or Passages.
+ * <p>
+ * Unlike Researchers, Scorers run concurrently (see {@link ParallelScorer}),
+ * so every implementation must honor this contract:
+ * <ul>
+ * <li>It is thread-safe. Either keep no mutable instance state, or guard it.
+ *     Per-question data belongs in local variables or Phrase.memo(), not in
+ *     fields.</li>
+ * <li>It only writes its own scores, using Answer.score() and
+ *     Passage.score(). It does not add, remove or reorder Answers or
+ *     Passages.</li>
+ * <li>It scores each Answer independently, so that any subset of the
+ *     answers may be handed to it in any order, possibly from several
+ *     threads at once.</li>
+ * </ul>
+ */
 public interface Scorer {
 	public void scoreQuestion(Question q, List<Answer> answers);
+	
+	/**
+	 * Whether {@link ParallelScorer} may split one question's answers into
+	 * blocks and score them from several threads at once. This is false
+	 * unless the Scorer has been checked to keep no shared mutable state,
+	 * including database statements or other connections.
+	 */
+	public default boolean splittable() {
+		return false;
+	}
 }
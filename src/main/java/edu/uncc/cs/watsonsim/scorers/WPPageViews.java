@@ -10,6 +10,12 @@ import edu.uncc.cs.watsonsim.Question;
 import edu.uncc.cs.watsonsim.nlp.ApproxStringIntMap;
 
 public class WPPageViews extends AnswerScorer {
+	/** The table is read-only once loaded, so answers may be split */
+	@Override
+	public boolean splittable() {
+		return true;
+	}
+
 	private static ApproxStringIntMap pageviews = new ApproxStringIntMap(null);
 	
 	public WPPageViews(Environment env) {
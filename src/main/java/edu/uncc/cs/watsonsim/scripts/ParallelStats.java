@@ -22,6 +22,7 @@ import edu.uncc.cs.watsonsim.StringUtils;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AtomicDouble;
 
 /**
@@ -107,6 +108,7 @@ class StatsGenerator {
 	private AtomicInteger total_questions = new AtomicInteger(0);
 	private AtomicInteger total_correct = new AtomicInteger(0);
 	private int total_answers = 0;
+	private final int batch_size;
 	
 	private double runtime;
 	private long run_start;
@@ -123,7 +125,11 @@ class StatsGenerator {
 	 */
 	public StatsGenerator(String dataset, String question_query) throws SQLException{
 		this.dataset = dataset;
-		questionsource = new DBQuestionSource(new Environment(), question_query);
+		Environment env = new Environment();
+		questionsource = new DBQuestionSource(env, question_query);
+		batch_size = Integer.parseInt(env.getConfOrElse("stats_batch_size", "25"));
+		// Replaying skips searching and researching (see Checkpoints)
+		System.out.println("Checkpoints: " + env.getConfOrElse("checkpoints", "off"));
 		this.run_start = System.currentTimeMillis();
 	}
 	
@@ -139,60 +145,20 @@ class StatsGenerator {
 		ConcurrentHashMap<Long, DefaultPipeline> pipes =
 				new ConcurrentHashMap<>();
 		
-		int[] all_ranks = questionsource.parallelStream().mapToInt(q -> {
+		// Questions are asked in batches so that they can share work
+		int[] all_ranks = Lists.partition(questionsource, batch_size)
+				.parallelStream().flatMapToInt(batch -> {
 			long tid = Thread.currentThread().getId();
 			DefaultPipeline pipe = pipes.computeIfAbsent(tid, (i) -> new DefaultPipeline());
 			
-			List<Answer> answers;
+			List<List<Answer>> batch_answers;
 			try{
-				answers = pipe.ask(q, message -> {});
+				batch_answers = pipe.askAll(batch, message -> {});
 			} catch (Exception e) {
 				log.fatal(e, e);
-				return 99;
+				return batch.stream().mapToInt(q -> 99);
 			}
-			
-			int tq = total_questions.incrementAndGet();
-			if (tq % 50 == 0) {
-				System.out.println(
-					String.format(
-						"[%d]: %d (%.02f%%) accurate",
-						total_questions.get(),
-						total_correct.get(),
-						total_correct.get() * 100.0 / total_questions.get()));
-			}
-			
-			int correct_rank = 99;
-			
-			if (answers.size() == 0) {
-				System.out.print('!');
-				return 99;
-			}
-			
-			for (int rank=0; rank<answers.size(); rank++) {
-				Answer candidate = answers.get(rank);
-				if (candidate.scores.get("CORRECT") > 0.99) {
-					total_inverse_rank.addAndGet(1 / ((double)rank + 1));
-					available.incrementAndGet();
-					if (rank < 100) correct_rank = rank;
-					break;
-				}
-			}
-			if (correct_rank == 0) {
-				total_correct.incrementAndGet();
-				System.out.print('#');
-			} else if (correct_rank < 3) {
-				System.out.print('o');
-			} else if (correct_rank < 99) {
-				System.out.print('.');
-			} else {
-				System.out.print(' ');
-			}
-			
-			total_answers += answers.size();
-			//System.out.println("Q: " + text.question + "\n" +
-			//		"A[Guessed: " + top_answer.getScore() + "]: " + top_answer.getTitle() + "\n" +
-			//		"A[Actual:" + correct_answer_score + "]: "  + text.answer);
-			return correct_rank;
+			return batch_answers.stream().mapToInt(this::rank);
 		}).mapToObj(x -> {int[] xs = new int[100]; xs[x] = 1; return xs;}).reduce(new int[100], StatsGenerator::add);
 	
 		// Only count the rank of questions that were actually there
@@ -204,6 +170,55 @@ class StatsGenerator {
 		report(all_ranks);
 	}
 	
+	/**
+	 * Record the statistics for one question's answers.
+	 * @return The rank of the correct answer, or 99 if it is missing
+	 */
+	private int rank(List<Answer> answers) {
+		int tq = total_questions.incrementAndGet();
+		if (tq % 50 == 0) {
+			System.out.println(
+				String.format(
+					"[%d]: %d (%.02f%%) accurate",
+					total_questions.get(),
+					total_correct.get(),
+					total_correct.get() * 100.0 / total_questions.get()));
+		}
+		
+		int correct_rank = 99;
+		
+		if (answers.size() == 0) {
+			System.out.print('!');
+			return 99;
+		}
+		
+		for (int rank=0; rank<answers.size(); rank++) {
+			Answer candidate = answers.get(rank);
+			if (candidate.scores.get("CORRECT") > 0.99) {
+				total_inverse_rank.addAndGet(1 / ((double)rank + 1));
+				available.incrementAndGet();
+				if (rank < 100) correct_rank = rank;
+				break;
+			}
+		}
+		if (correct_rank == 0) {
+			total_correct.incrementAndGet();
+			System.out.print('#');
+		} else if (correct_rank < 3) {
+			System.out.print('o');
+		} else if (correct_rank < 99) {
+			System.out.print('.');
+		} else {
+			System.out.print(' ');
+		}
+		
+		total_answers += answers.size();
+		//System.out.println("Q: " + text.question + "\n" +
+		//		"A[Guessed: " + top_answer.getScore() + "]: " + top_answer.getTitle() + "\n" +
+		//		"A[Actual:" + correct_answer_score + "]: "  + text.answer);
+		return correct_rank;
+	}
+	
 	private static int[] add(int[] a, int[] b) {
 		int[] c = new int[a.length];
 		for (int i=0; i<a.length; i++)
@@ -0,0 +1,85 @@
+package edu.uncc.cs.watsonsim.scripts;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.uncc.cs.watsonsim.DBQuestionSource;
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Question;
+import edu.uncc.cs.watsonsim.search.LuceneSearcher;
+import edu.uncc.cs.watsonsim.search.Searcher;
+
+/**
+ * Compare LuceneSearcher's phrase queries with shingle term lookups, on the
+ * same questions, for latency and for how many of the same documents they
+ * find (recall against the phrase queries, in the top MAX_RESULTS).
+ * <p>
+ * The index must have been built with lucene_shingles = true.
+ * <pre>ShingleBenchmark [questions]</pre>
+ *
+ * @author Sean Gallagher
+ */
+public class ShingleBenchmark {
+
+	public static void main(String[] args) throws SQLException, IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		Environment env = new Environment();
+		List<Question> questions = new DBQuestionSource(env,
+				String.format("ORDER BY permute LIMIT %d", count));
+		env.withLucene(lucene -> {
+			run(lucene, questions);
+			return null;
+		});
+	}
+	
+	private static void run(IndexSearcher lucene, List<Question> questions) throws IOException {
+		// Warm up both, so neither pays for loading the index
+		for (Question q : questions.subList(0, Math.min(50, questions.size()))) {
+			lucene.search(phrases(q), Searcher.MAX_RESULTS);
+			lucene.search(shingles(q), Searcher.MAX_RESULTS);
+		}
+		
+		long phrase_ns = 0, shingle_ns = 0;
+		int found = 0, agreed = 0;
+		for (Question q : questions) {
+			long start = System.nanoTime();
+			ScoreDoc[] expected = lucene.search(phrases(q), Searcher.MAX_RESULTS).scoreDocs;
+			phrase_ns += System.nanoTime() - start;
+			start = System.nanoTime();
+			ScoreDoc[] actual = lucene.search(shingles(q), Searcher.MAX_RESULTS).scoreDocs;
+			shingle_ns += System.nanoTime() - start;
+			
+			Set<Integer> expected_docs = new HashSet<>();
+			for (ScoreDoc s : expected) expected_docs.add(s.doc);
+			for (ScoreDoc s : actual) if (expected_docs.contains(s.doc)) agreed++;
+			found += expected.length;
+		}
+		
+		int n = Math.max(1, questions.size());
+		System.out.println(String.format(
+				"%d questions%n"
+				+ "phrase queries: %.2fms/question%n"
+				+ "shingle terms:  %.2fms/question%n"
+				+ "recall@%d of shingles against phrases: %.3f",
+				questions.size(),
+				phrase_ns / 1e6 / n,
+				shingle_ns / 1e6 / n,
+				Searcher.MAX_RESULTS,
+				found == 0 ? 0 : agreed / (double) found));
+	}
+	
+	private static Query phrases(Question q) {
+		return LuceneSearcher.queryFromSkipBigrams(q.text + " " + q.getCategory());
+	}
+	
+	private static Query shingles(Question q) {
+		return LuceneSearcher.queryFromShingles(q.text + " " + q.getCategory());
+	}
+}
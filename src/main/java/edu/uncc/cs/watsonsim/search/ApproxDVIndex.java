@@ -0,0 +1,438 @@
+package edu.uncc.cs.watsonsim.search;
+
+import static org.fusesource.lmdbjni.Constants.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.Env;
+import org.fusesource.lmdbjni.Transaction;
+
+import edu.uncc.cs.watsonsim.KV;
+import edu.uncc.cs.watsonsim.nlp.DenseVectors;
+import edu.uncc.cs.watsonsim.nlp.MappedRows;
+import edu.uncc.cs.watsonsim.nlp.StringStack;
+
+/**
+ * An approximate nearest neighbor index over the document mean-vectors, as
+ * a faster alternative to MeanDVSearch's scan of the whole LMDB store.
+ * <p>
+ * This is an inverted file (IVF) index. The vectors are clustered offline
+ * with k-means, and stored grouped by cluster. A query is only compared with
+ * the vectors of the few clusters whose centroids are closest to it (nprobe
+ * of them), which is a small fraction of the collection. So it may miss a
+ * few of the exact top results, and main() reports how many (recall@20).
+ * <p>
+ * The vectors are normalized when the index is built, so cosine similarity
+ * is a plain dot product, and they are memory-mapped rather than loaded.
+ * The index is a directory with three files:
+ * <pre>
+ * index.bin    header, cluster offsets and centroids (loaded in the heap)
+ * vectors.bin  the normalized vectors, grouped by cluster (memory-mapped)
+ * ids.bin      the document id of each vector (loaded in a StringStack)
+ * </pre>
+ * Build it from the LMDB store with:
+ * <pre>ApproxDVIndex build [clusters] [iterations]</pre>
+ * and measure it against the exact scan with:
+ * <pre>ApproxDVIndex recall [queries] [nprobe]</pre>
+ *
+ * @author Sean Gallagher
+ */
+public class ApproxDVIndex {
+	public static final Path DEFAULT_LMDB = Paths.get("data/wiki-vectors.lmdb");
+	public static final Path DEFAULT_INDEX = Paths.get("data/wiki-vectors.ivf");
+	private static final int MAGIC = 0x57534956; // "WSIV"
+	private static final int FORMAT = 1;
+
+	private final int dim;
+	private final int nlist;
+	/** Vectors of cluster c are rows offsets[c] until offsets[c+1] */
+	private final int[] offsets;
+	private final float[][] centroids;
+	private final MappedRows vectors;
+	private final StringStack ids;
+
+	/** A document and how similar it is to the query */
+	public static final class Hit {
+		public final String id;
+		public final double sim;
+		Hit(String id, double sim) {
+			this.id = id;
+			this.sim = sim;
+		}
+	}
+
+	/**
+	 * Open an index that was already built.
+	 * @param dir	The index directory
+	 */
+	public ApproxDVIndex(Path dir) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(dir.resolve("index.bin"))))) {
+			if (readInt(in) != MAGIC || readInt(in) != FORMAT)
+				throw new IOException(dir + " is not a vector index, or is too old.");
+			dim = readInt(in);
+			nlist = readInt(in);
+			offsets = new int[nlist+1];
+			for (int i=0; i<=nlist; i++) offsets[i] = readInt(in);
+			centroids = new float[nlist][dim];
+			for (float[] c : centroids)
+				for (int i=0; i<dim; i++) c[i] = Float.intBitsToFloat(readInt(in));
+		}
+		int rows = offsets[nlist];
+		vectors = new MappedRows(dir.resolve("vectors.bin"), 0, rows, dim);
+		ids = readIds(dir.resolve("ids.bin"), rows);
+	}
+
+	/**
+	 * Read a table of document ids, as length-prefixed UTF-8 strings.
+	 * FlatDVStore uses the same format.
+	 */
+	static StringStack readIds(Path file, int rows) throws IOException {
+		StringStack ids = new StringStack();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file)))) {
+			byte[] buf = new byte[256];
+			for (int i=0; i<rows; i++) {
+				int len = readInt(in);
+				if (len > buf.length) buf = new byte[len];
+				in.readFully(buf, 0, len);
+				ids.add(new String(buf, 0, len, StandardCharsets.UTF_8));
+			}
+		}
+		return ids;
+	}
+
+	/** Write one entry of a table of document ids */
+	static void writeId(DataOutputStream out, String id) throws IOException {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		writeInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/** How many documents are in the index */
+	public int size() {
+		return offsets[nlist];
+	}
+
+	/**
+	 * Find (approximately) the k most similar documents to a vector.
+	 * Like the exact scan, only documents with positive similarity count.
+	 * @param query		Any vector; it needn't be normalized
+	 * @param k			How many results to return, at most
+	 * @param nprobe	How many clusters to search. More is slower but
+	 * 					misses fewer documents.
+	 */
+	public List<Hit> query(float[] query, int k, int nprobe) {
+		float[] q = normalized(query, dim);
+		// Find the closest clusters
+		Integer[] order = new Integer[nlist];
+		double[] csims = new double[nlist];
+		for (int c=0; c<nlist; c++) {
+			order[c] = c;
+			csims[c] = dot(centroids[c], q);
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(csims[b], csims[a]));
+
+		// Search only those clusters
+		double[] sims = new double[k+1];
+		int[] best = new int[k+1];
+		Arrays.fill(best, -1);
+		for (int p=0; p<Math.min(nprobe, nlist); p++) {
+			int c = order[p];
+			for (int row=offsets[c]; row<offsets[c+1]; row++) {
+				double sim = vectors.dot(row, q);
+				if (sim > sims[k-1]) bubble(sims, best, sim, row, k);
+			}
+		}
+		return hits(sims, best, k);
+	}
+
+	/**
+	 * Find exactly the k most similar documents by scanning all of them.
+	 * This is for measuring the recall of query().
+	 */
+	public List<Hit> exact(float[] query, int k) {
+		float[] q = normalized(query, dim);
+		double[] sims = new double[k+1];
+		int[] best = new int[k+1];
+		Arrays.fill(best, -1);
+		for (int row=0; row<size(); row++) {
+			double sim = vectors.dot(row, q);
+			if (sim > sims[k-1]) bubble(sims, best, sim, row, k);
+		}
+		return hits(sims, best, k);
+	}
+
+	private List<Hit> hits(double[] sims, int[] best, int k) {
+		List<Hit> hits = new ArrayList<>();
+		for (int i=0; i<k; i++) {
+			if (best[i] >= 0) hits.add(new Hit(ids.get(best[i]), sims[i]));
+		}
+		return hits;
+	}
+
+	/**
+	 * The same insertion as MeanDVSearch.bubble(), for row numbers.
+	 * The arrays are one longer than k.
+	 */
+	static void bubble(double[] sims, int[] rows, double this_sim, int row, int k) {
+		int i = k-1;
+		for (; i>=0 && this_sim > sims[i]; i--) {
+			sims[i+1] = sims[i];
+			rows[i+1] = rows[i];
+		}
+		sims[i+1] = this_sim;
+		rows[i+1] = row;
+	}
+
+	private static double dot(float[] a, float[] b) {
+		double sum = 0;
+		for (int i=0; i<a.length; i++) sum += a[i] * b[i];
+		return sum;
+	}
+
+	/** A unit-length copy of a vector, resized to dim (zero stays zero) */
+	static float[] normalized(float[] v, int dim) {
+		float[] out = Arrays.copyOf(v, dim);
+		double norm = Math.sqrt(dot(out, out));
+		if (norm > 0)
+			for (int i=0; i<dim; i++) out[i] /= norm;
+		return out;
+	}
+
+	/** The closest centroid to a (normalized) vector */
+	private static int nearest(float[][] centroids, float[] v) {
+		int best = 0;
+		double best_sim = Double.NEGATIVE_INFINITY;
+		for (int c=0; c<centroids.length; c++) {
+			double sim = dot(centroids[c], v);
+			if (sim > best_sim) {
+				best_sim = sim;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Build an index from the LMDB vector store. This reads the store three
+	 * times: to sample it for clustering, to assign every vector to a
+	 * cluster, and to write the vectors in cluster order.
+	 * @param lmdb			The LMDB store (as used by MeanDVSearch)
+	 * @param dir			Where to put the index
+	 * @param nlist			How many clusters to make
+	 * @param iterations	How many rounds of k-means to run
+	 */
+	public static void build(Path lmdb, Path dir, int nlist, int iterations)
+			throws IOException {
+		final int dim = DenseVectors.N;
+		final int sample_size = 50 * nlist;
+		Files.createDirectories(dir);
+		try (Env env = new Env()) {
+			env.open(lmdb.toString(), NOSUBDIR);
+
+			// Pass 1: Take a uniform sample, and remember every id
+			System.out.println("Sampling..");
+			StringStack scan_ids = new StringStack();
+			List<float[]> sample = new ArrayList<>();
+			Random rng = new Random(42);
+			try (Transaction tx = env.createReadTransaction();
+					Database db = env.openDatabase(tx, "wiki-vectors", 0)) {
+				int seen = 0;
+				for (Entry e : db.iterate(tx).iterable()) {
+					scan_ids.add(string(e.getKey()));
+					float[] v = normalized(KV.asVector(e.getValue()), dim);
+					if (sample.size() < sample_size) {
+						sample.add(v);
+					} else {
+						int j = rng.nextInt(seen+1);
+						if (j < sample_size) sample.set(j, v);
+					}
+					seen++;
+				}
+			}
+			int rows = scan_ids.size();
+
+			// Cluster the sample (spherical k-means)
+			float[][] centroids = new float[nlist][];
+			for (int c=0; c<nlist; c++)
+				centroids[c] = sample.get(c % sample.size()).clone();
+			for (int it=0; it<iterations; it++) {
+				System.out.println("k-means round " + (it+1) + " of " + iterations);
+				final float[][] current = centroids;
+				int[] assigned = sample.parallelStream()
+						.mapToInt(v -> nearest(current, v)).toArray();
+				float[][] sums = new float[nlist][dim];
+				int[] counts = new int[nlist];
+				for (int i=0; i<assigned.length; i++) {
+					float[] v = sample.get(i);
+					float[] sum = sums[assigned[i]];
+					for (int d=0; d<dim; d++) sum[d] += v[d];
+					counts[assigned[i]]++;
+				}
+				for (int c=0; c<nlist; c++) {
+					// Restart empty clusters somewhere random
+					centroids[c] = counts[c] == 0
+							? sample.get(rng.nextInt(sample.size())).clone()
+							: normalized(sums[c], dim);
+				}
+			}
+			sample = null;
+
+			// Pass 2: Assign every vector to a cluster
+			System.out.println("Assigning " + rows + " vectors..");
+			int[] cluster = new int[rows];
+			try (Transaction tx = env.createReadTransaction();
+					Database db = env.openDatabase(tx, "wiki-vectors", 0)) {
+				List<float[]> block = new ArrayList<>();
+				int done = 0;
+				for (Entry e : db.iterate(tx).iterable()) {
+					block.add(normalized(KV.asVector(e.getValue()), dim));
+					if (block.size() == 10000) {
+						done = assign(centroids, block, cluster, done);
+					}
+				}
+				assign(centroids, block, cluster, done);
+			}
+
+			// Lay out the clusters one after another
+			int[] offsets = new int[nlist+1];
+			for (int c : cluster) offsets[c+1]++;
+			for (int c=0; c<nlist; c++) offsets[c+1] += offsets[c];
+			int[] cursor = Arrays.copyOf(offsets, nlist);
+			int[] position = new int[rows];
+			int[] scan_index = new int[rows];
+			for (int i=0; i<rows; i++) {
+				position[i] = cursor[cluster[i]]++;
+				scan_index[position[i]] = i;
+			}
+
+			// Pass 3: Write the vectors in cluster order
+			System.out.println("Writing vectors..");
+			try (FileChannel out = FileChannel.open(dir.resolve("vectors.bin"),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+					Transaction tx = env.createReadTransaction();
+					Database db = env.openDatabase(tx, "wiki-vectors", 0)) {
+				ByteBuffer row = ByteBuffer.allocate(dim * 4).order(ByteOrder.LITTLE_ENDIAN);
+				int i = 0;
+				for (Entry e : db.iterate(tx).iterable()) {
+					row.clear();
+					row.asFloatBuffer().put(normalized(KV.asVector(e.getValue()), dim));
+					long at = (long) position[i] * dim * 4;
+					while (row.hasRemaining())
+						at += out.write(row, at);
+					i++;
+				}
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("ids.bin"))))) {
+				for (int r=0; r<rows; r++) {
+					writeId(out, scan_ids.get(scan_index[r]));
+				}
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("index.bin"))))) {
+				writeInt(out, MAGIC);
+				writeInt(out, FORMAT);
+				writeInt(out, dim);
+				writeInt(out, nlist);
+				for (int o : offsets) writeInt(out, o);
+				for (float[] c : centroids)
+					for (float f : c) writeInt(out, Float.floatToIntBits(f));
+			}
+		}
+	}
+
+	/** Assign a block of vectors to clusters in parallel, then empty it */
+	private static int assign(float[][] centroids, List<float[]> block,
+			int[] cluster, int done) {
+		int[] assigned = block.parallelStream()
+				.mapToInt(v -> nearest(centroids, v)).toArray();
+		System.arraycopy(assigned, 0, cluster, done, assigned.length);
+		block.clear();
+		return done + assigned.length;
+	}
+
+	/*
+	 * The files are little-endian, like the rest of the vector stores,
+	 * while DataInput and DataOutput are big-endian.
+	 */
+	static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	static void writeInt(DataOutputStream out, int x) throws IOException {
+		out.writeInt(Integer.reverseBytes(x));
+	}
+
+	/**
+	 * Build an index, or measure its recall@20 and speed against the exact
+	 * scan. The queries are means of two random documents, a bit like a
+	 * question that touches two topics.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("build")) {
+			int nlist = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+			int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+			build(DEFAULT_LMDB, DEFAULT_INDEX, nlist, iterations);
+		} else if (args.length > 0 && args[0].equals("recall")) {
+			int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+			int nprobe = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+			final int K = MeanDVSearch.K;
+			ApproxDVIndex index = new ApproxDVIndex(DEFAULT_INDEX);
+			Random rng = new Random(7);
+			float[] a = new float[index.dim], b = new float[index.dim];
+			double total_recall = 0;
+			long exact_ns = 0, approx_ns = 0;
+			for (int q=0; q<queries; q++) {
+				index.vectors.get(rng.nextInt(index.size()), a);
+				index.vectors.get(rng.nextInt(index.size()), b);
+				float[] query = new float[index.dim];
+				for (int i=0; i<index.dim; i++) query[i] = a[i] + b[i];
+
+				long start = System.nanoTime();
+				List<Hit> truth = index.exact(query, K);
+				exact_ns += System.nanoTime() - start;
+				start = System.nanoTime();
+				List<Hit> found = index.query(query, K, nprobe);
+				approx_ns += System.nanoTime() - start;
+
+				Set<String> truth_ids = new HashSet<>();
+				for (Hit h : truth) truth_ids.add(h.id);
+				long matched = found.stream().filter(h -> truth_ids.contains(h.id)).count();
+				total_recall += truth.isEmpty() ? 1 : matched / (double) truth.size();
+			}
+			System.out.println(String.format(
+					"recall@%d = %.4f with nprobe=%d over %d queries%n"
+					+ "exact scan: %.2fms/query, ivf: %.2fms/query",
+					K, total_recall / queries, nprobe, queries,
+					exact_ns / 1e6 / queries, approx_ns / 1e6 / queries));
+		} else {
+			System.out.println("Usage: ApproxDVIndex build [clusters] [iterations]\n"
+					+ "       ApproxDVIndex recall [queries] [nprobe]");
+		}
+	}
+}
@@ -1,10 +1,10 @@
 package edu.uncc.cs.watsonsim.search;
 
 import java.util.List;
-import com.google.gson.reflect.TypeToken;
 
 import edu.uncc.cs.watsonsim.Environment;
 import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.PersistentCache;
 
 public class CachingSearcher extends Searcher {
 	private final Searcher searcher;
@@ -20,7 +20,12 @@ public class CachingSearcher extends Searcher {
 		return env.computeIfAbsent(
 				"search:" + engine_name +":"+ query,
 				k -> searcher.query(query),
-				new TypeToken<List<Passage>>(){}.getType()
+				PersistentCache.PASSAGES
 				);
 	}
+
+	@Override
+	public String name() {
+		return engine_name;
+	}
 }
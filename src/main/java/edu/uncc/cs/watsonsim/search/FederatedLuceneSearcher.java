@@ -0,0 +1,52 @@
+package edu.uncc.cs.watsonsim.search;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.Question;
+
+/**
+ * LuceneSearcher over a sharded index (see ShardedIndex), for corpora that
+ * are too big to index or search quickly as one. It gives the same kind of
+ * passages and scores as LuceneSearcher, so it can take its place.
+ * <p>
+ * Enable it by setting lucene_shards in config.properties to where
+ * Reindex wrote the shards.
+ *
+ * @author Sean Gallagher
+ */
+public class FederatedLuceneSearcher extends LuceneSearcher {
+	private final ShardedIndex shards;
+	
+	public FederatedLuceneSearcher(Environment env) {
+		super(env);
+		try {
+			shards = new ShardedIndex(Paths.get(env.getConfOrDie("lucene_shards")));
+		} catch (IOException e) {
+			throw new RuntimeException("The sharded Lucene index failed to open.", e);
+		}
+	}
+	
+	@Override
+	List<Passage> search(Question question) {
+		List<Passage> results = new ArrayList<>();
+		try {
+			ScoreDoc[] hits = shards.search(
+					queryFor(question, shingles),
+					MAX_RESULTS).scoreDocs;
+			for (int i=0; i < hits.length; i++) {
+				results.add(passage(shards.doc(hits[i], fields), i, hits[i].score));
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to query the Lucene shards. Are they in the correct location?");
+			e.printStackTrace();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,475 @@
+package edu.uncc.cs.watsonsim.search;
+
+import static org.fusesource.lmdbjni.Constants.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.Env;
+import org.fusesource.lmdbjni.Transaction;
+
+import edu.uncc.cs.watsonsim.KV;
+import edu.uncc.cs.watsonsim.nlp.DenseVectors;
+import edu.uncc.cs.watsonsim.nlp.StringIndex;
+import edu.uncc.cs.watsonsim.nlp.StringStack;
+import edu.uncc.cs.watsonsim.search.ApproxDVIndex.Hit;
+
+/**
+ * The document mean-vectors in one flat, quantized, memory-mapped file, for
+ * exact searches that are much faster than scanning LMDB.
+ * <p>
+ * Scanning LMDB makes a new float[] for every document and recomputes its
+ * norm for every comparison. Here the vectors are normalized once, when the
+ * store is built, and quantized to either 8 bits per number (with a scale
+ * for each row) or 16 bit floats, which is a quarter or half the size of
+ * the originals. So the similarity is one dot product, and the scan reads a
+ * fraction of the memory. The scan is split into ranges of rows run on the
+ * fork-join pool, each keeping its own top K, which are merged at the end.
+ * <p>
+ * Java 8 has no vector instructions to call, so each range copies blocks of
+ * rows into plain arrays and decodes a row into floats before the dot
+ * product, which is the kind of loop the JIT unrolls best.
+ * <p>
+ * The store is a directory with these files:
+ * <pre>
+ * vectors.bin  a header, then the quantized rows (memory-mapped)
+ * scales.bin   the scale of each row, for int8 only (loaded in the heap)
+ * ids.bin      the document id of each row (as in ApproxDVIndex)
+ * </pre>
+ * Build it from the LMDB store with:
+ * <pre>FlatDVStore build [int8|fp16]</pre>
+ *
+ * @author Sean Gallagher
+ */
+public class FlatDVStore {
+	public static final Path DEFAULT_LMDB = Paths.get("data/wiki-vectors.lmdb");
+	public static final Path DEFAULT_STORE = Paths.get("data/wiki-vectors.flat");
+	private static final int MAGIC = 0x57534656; // "WSFV"
+	private static final int FORMAT = 1;
+	private static final int HEADER_BYTES = 64;
+	/** How many rows to copy out of the map at once */
+	private static final int BLOCK = 256;
+	/** Don't split the scan into ranges smaller than this */
+	private static final int MIN_RANGE = 4096;
+
+	/** How each number is stored */
+	public enum Encoding {
+		/** A signed byte, times the row's scale */
+		INT8(1),
+		/** An IEEE 754 half precision float */
+		FP16(2);
+
+		final int bytes;
+		Encoding(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	/** Every 16 bit float, decoded */
+	private static final float[] HALVES = new float[1 << 16];
+	static {
+		for (int h=0; h<HALVES.length; h++) HALVES[h] = fromHalf((short) h);
+	}
+
+	private final Encoding encoding;
+	private final int dim;
+	private final int rows;
+	private final int row_bytes;
+	private final int rows_per_chunk;
+	private final ByteBuffer[] chunks;
+	private final float[] scales;
+	private final StringStack ids;
+	/** Rows by document id, built the first time it's needed */
+	private volatile StringIndex rows_by_id;
+
+	/**
+	 * Open a store that was already built.
+	 * @param dir	The store directory
+	 */
+	public FlatDVStore(Path dir) throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve("vectors.bin"),
+				StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			if (header.remaining() < 20
+					|| header.getInt() != MAGIC || header.getInt() != FORMAT)
+				throw new IOException(dir + " is not a vector store, or is too old.");
+			dim = header.getInt();
+			rows = header.getInt();
+			encoding = Encoding.values()[header.getInt()];
+			row_bytes = dim * encoding.bytes;
+
+			// A single map is limited to 2GB, so map whole rows in chunks
+			rows_per_chunk = Math.max(1, Integer.MAX_VALUE / row_bytes);
+			chunks = new ByteBuffer[(rows + rows_per_chunk - 1) / rows_per_chunk];
+			for (int i=0; i<chunks.length; i++) {
+				long first = (long) i * rows_per_chunk;
+				long count = Math.min(rows_per_chunk, rows - first);
+				chunks[i] = channel.map(MapMode.READ_ONLY,
+						HEADER_BYTES + first * row_bytes, count * row_bytes)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		if (encoding == Encoding.INT8) {
+			scales = new float[rows];
+			ByteBuffer.wrap(Files.readAllBytes(dir.resolve("scales.bin")))
+				.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(scales);
+		} else {
+			scales = null;
+		}
+		ids = ApproxDVIndex.readIds(dir.resolve("ids.bin"), rows);
+	}
+
+	/** How many documents are in the store */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * Find the k most similar documents to a vector, by scanning them all.
+	 * Like MeanDVSearch, only documents with positive similarity count.
+	 * @param query		Any vector; it needn't be normalized
+	 * @param k			How many results to return, at most
+	 */
+	public List<Hit> search(float[] query, int k) {
+		return searchAll(new float[][]{query}, k).get(0);
+	}
+
+	/**
+	 * Find the k most similar documents to each of many vectors, in a
+	 * single pass over the store. Each row is read and decoded once and
+	 * compared with every query while it is in cache, so a batch costs
+	 * much less than searching for each vector separately.
+	 * @param queries	The vectors, which needn't be normalized
+	 * @param k			How many results to return for each, at most
+	 * @return	The results for each query, in the same order
+	 */
+	public List<List<Hit>> searchAll(float[][] queries, int k) {
+		float[][] qs = new float[queries.length][];
+		for (int i=0; i<queries.length; i++)
+			qs[i] = ApproxDVIndex.normalized(queries[i], dim);
+		int ranges = Math.max(1, Math.min(rows / MIN_RANGE,
+				4 * Runtime.getRuntime().availableProcessors()));
+		Best[] best = IntStream.range(0, ranges).parallel()
+				.mapToObj(r -> scan(qs, k,
+						(int) ((long) rows * r / ranges),
+						(int) ((long) rows * (r+1) / ranges)))
+				.reduce(Best::merge)
+				.orElseGet(() -> Best.array(qs.length, k));
+		List<List<Hit>> results = new ArrayList<>();
+		for (Best b : best) {
+			List<Hit> hits = new ArrayList<>();
+			for (int i=0; i<k; i++) {
+				if (b.rows[i] >= 0) hits.add(new Hit(ids.get(b.rows[i]), b.sims[i]));
+			}
+			results.add(hits);
+		}
+		return results;
+	}
+
+	/**
+	 * Find the row of a document
+	 * @return The row, or -1 if the document has no vector
+	 */
+	public int row(String id) {
+		StringIndex index = rows_by_id;
+		if (index == null) {
+			synchronized (this) {
+				if (rows_by_id == null) rows_by_id = new StringIndex(ids);
+				index = rows_by_id;
+			}
+		}
+		return index.get(id);
+	}
+
+	/**
+	 * Find the similarity of a vector to a few documents, without scanning
+	 * the store; for rescoring the hits of another search.
+	 * @param query		Any vector; it needn't be normalized
+	 * @param ids		The documents' ids
+	 * @return	The similarity to each document, in the same order, or NaN
+	 * 			for documents that have no vector
+	 */
+	public double[] sims(float[] query, List<String> ids) {
+		float[] q = ApproxDVIndex.normalized(query, dim);
+		double[] sims = new double[ids.size()];
+		byte[] block = new byte[row_bytes];
+		float[] row = new float[dim];
+		for (int i=0; i<sims.length; i++) {
+			int r = row(ids.get(i));
+			if (r < 0) {
+				sims[i] = Double.NaN;
+				continue;
+			}
+			ByteBuffer chunk = chunks[r / rows_per_chunk].duplicate();
+			chunk.position((r % rows_per_chunk) * row_bytes);
+			chunk.get(block);
+			decode(block, 0, r, row);
+			double sim = 0;
+			for (int d=0; d<dim; d++) sim += row[d] * q[d];
+			sims[i] = sim;
+		}
+		return sims;
+	}
+
+	/** Find the top k of the rows from start until end, for each query */
+	private Best[] scan(float[][] qs, int k, int start, int end) {
+		Best[] best = Best.array(qs.length, k);
+		byte[] block = new byte[BLOCK * row_bytes];
+		float[] row = new float[dim];
+		int chunk_index = -1;
+		ByteBuffer chunk = null;
+		for (int first=start; first<end;) {
+			// Blocks never straddle two chunks
+			if (first / rows_per_chunk != chunk_index) {
+				chunk_index = first / rows_per_chunk;
+				chunk = chunks[chunk_index].duplicate();
+			}
+			int chunk_end = Math.min(end, (chunk_index+1) * rows_per_chunk);
+			int count = Math.min(BLOCK, chunk_end - first);
+			chunk.position((first % rows_per_chunk) * row_bytes);
+			chunk.get(block, 0, count * row_bytes);
+			for (int i=0; i<count; i++) {
+				decode(block, i * row_bytes, first + i, row);
+				for (int j=0; j<qs.length; j++) {
+					float[] q = qs[j];
+					double sim = 0;
+					for (int d=0; d<dim; d++) sim += row[d] * q[d];
+					best[j].offer(sim, first + i);
+				}
+			}
+			first += count;
+		}
+		return best;
+	}
+
+	/** Decode one row, which starts at offset in block, into out */
+	private void decode(byte[] block, int offset, int row_id, float[] out) {
+		if (encoding == Encoding.INT8) {
+			float scale = scales[row_id];
+			for (int d=0; d<dim; d++) out[d] = block[offset + d] * scale;
+		} else {
+			for (int d=0; d<dim; d++) {
+				int at = offset + 2*d;
+				out[d] = HALVES[(block[at] & 0xff) | (block[at+1] & 0xff) << 8];
+			}
+		}
+	}
+
+	/** The top k rows of some range, kept as in MeanDVSearch.bubble() */
+	private static final class Best {
+		final double[] sims;
+		final int[] rows;
+		final int k;
+		Best(int k) {
+			this.k = k;
+			sims = new double[k+1];
+			rows = new int[k+1];
+			Arrays.fill(rows, -1);
+		}
+
+		void offer(double sim, int row) {
+			if (sim > sims[k-1]) ApproxDVIndex.bubble(sims, rows, sim, row, k);
+		}
+
+		void merge(Best other) {
+			for (int i=0; i<k && other.rows[i] >= 0; i++) offer(other.sims[i], other.rows[i]);
+		}
+
+		static Best[] array(int queries, int k) {
+			Best[] best = new Best[queries];
+			for (int i=0; i<queries; i++) best[i] = new Best(k);
+			return best;
+		}
+
+		/** Merge the results of two ranges, query by query */
+		static Best[] merge(Best[] left, Best[] right) {
+			for (int i=0; i<left.length; i++) left[i].merge(right[i]);
+			return left;
+		}
+	}
+
+	/*
+	 * Quantization
+	 */
+
+	/**
+	 * The scale for an int8 row: the largest magnitude maps to 127.
+	 * A row of zeros gets a scale of zero.
+	 */
+	static float scaleFor(float[] v) {
+		float max = 0;
+		for (float f : v) max = Math.max(max, Math.abs(f));
+		return max / 127;
+	}
+
+	/** Quantize a number to int8 with its row's scale */
+	static byte toInt8(float f, float scale) {
+		return scale == 0 ? 0 : (byte) Math.max(-127, Math.min(127, Math.round(f / scale)));
+	}
+
+	/** Convert a float to the nearest half precision float */
+	static short toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		float abs = Math.abs(f);
+		if (Float.isNaN(f)) return (short) (sign | 0x7e00);
+		// Anything from 65520 rounds to infinity
+		if (abs >= 65520f) return (short) (sign | 0x7c00);
+		// Subnormal halves are multiples of 2^-24
+		if (abs < 0x1p-14f) return (short) (sign | Math.round(abs * 0x1p24f));
+		// Rebias the exponent and round the 13 lost bits to nearest even
+		int magnitude = bits & 0x7fffffff;
+		int rounded = magnitude + 0xfff + ((magnitude >>> 13) & 1);
+		return (short) (sign | ((rounded - (112 << 23)) >>> 13));
+	}
+
+	/** Convert a half precision float to a float (exactly) */
+	static float fromHalf(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exponent == 0) {
+			float subnormal = mantissa * 0x1p-24f;
+			return sign == 0 ? subnormal : -subnormal;
+		} else if (exponent == 0x1f) {
+			return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+		} else {
+			return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+		}
+	}
+
+	/*
+	 * Building
+	 */
+
+	/**
+	 * Write a store from any source of vectors, in one pass.
+	 * @param dir		Where to put the store
+	 * @param encoding	How to quantize the vectors
+	 * @param vectors	Document ids and their (not necessarily normalized)
+	 * 					vectors. They should all be the same length.
+	 */
+	static void write(Path dir, Encoding encoding, int dim,
+			Iterable<Map.Entry<String, float[]>> vectors) throws IOException {
+		Files.createDirectories(dir);
+		int rows = 0;
+		try (FileChannel out = FileChannel.open(dir.resolve("vectors.bin"),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+				DataOutputStream ids = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("ids.bin"))));
+				DataOutputStream scales = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(dir.resolve("scales.bin"))))) {
+			ByteBuffer row = ByteBuffer.allocate(dim * encoding.bytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			out.position(HEADER_BYTES);
+			for (Map.Entry<String, float[]> entry : vectors) {
+				float[] v = ApproxDVIndex.normalized(entry.getValue(), dim);
+				row.clear();
+				if (encoding == Encoding.INT8) {
+					float scale = scaleFor(v);
+					for (float f : v) row.put(toInt8(f, scale));
+					ApproxDVIndex.writeInt(scales, Float.floatToIntBits(scale));
+				} else {
+					for (float f : v) row.putShort(toHalf(f));
+				}
+				row.flip();
+				while (row.hasRemaining()) out.write(row);
+				ApproxDVIndex.writeId(ids, entry.getKey());
+				rows++;
+			}
+
+			// Now that the rows are counted, fill in the header
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(FORMAT).putInt(dim).putInt(rows)
+				.putInt(encoding.ordinal());
+			header.clear();
+			long at = 0;
+			while (header.hasRemaining()) at += out.write(header, at);
+		}
+		if (encoding != Encoding.INT8) Files.delete(dir.resolve("scales.bin"));
+	}
+
+	/**
+	 * Build a store from the LMDB vector store used by MeanDVSearch.
+	 */
+	public static void build(Path lmdb, Path dir, Encoding encoding) throws IOException {
+		try (Env env = new Env()) {
+			env.open(lmdb.toString(), NOSUBDIR | RDONLY);
+			try (Transaction tx = env.createReadTransaction();
+					Database db = env.openDatabase(tx, "wiki-vectors", 0)) {
+				Iterable<Entry> entries = db.iterate(tx).iterable();
+				write(dir, encoding, DenseVectors.N, () -> {
+					Iterator<Entry> it = entries.iterator();
+					return new Iterator<Map.Entry<String, float[]>>() {
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+						public Map.Entry<String, float[]> next() {
+							Entry e = it.next();
+							return new SimpleImmutableEntry<>(
+									string(e.getKey()), KV.asVector(e.getValue()));
+						}
+					};
+				});
+			}
+		}
+	}
+
+	/**
+	 * Build a store, or time searching it for some random vectors, one at a
+	 * time and all at once.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("build")) {
+			Encoding encoding = args.length > 1
+					? Encoding.valueOf(args[1].toUpperCase())
+					: Encoding.INT8;
+			build(DEFAULT_LMDB, DEFAULT_STORE, encoding);
+		} else if (args.length > 0 && args[0].equals("bench")) {
+			int queries = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+			FlatDVStore store = new FlatDVStore(DEFAULT_STORE);
+			Random rng = new Random(7);
+			float[][] qs = new float[queries][store.dim];
+			for (float[] q : qs)
+				for (int d=0; d<q.length; d++) q[d] = (float) rng.nextGaussian();
+
+			long start = System.nanoTime();
+			for (float[] q : qs) store.search(q, MeanDVSearch.K);
+			long single_ns = System.nanoTime() - start;
+			start = System.nanoTime();
+			store.searchAll(qs, MeanDVSearch.K);
+			long batch_ns = System.nanoTime() - start;
+			System.out.println(String.format(
+					"%d rows, %d queries%n"
+					+ "one at a time: %.2fms/query, batched: %.2fms/query",
+					store.size(), queries,
+					single_ns / 1e6 / queries, batch_ns / 1e6 / queries));
+		} else {
+			System.out.println("Usage: FlatDVStore build [int8|fp16]\n"
+					+ "       FlatDVStore bench [queries]");
+		}
+	}
+}
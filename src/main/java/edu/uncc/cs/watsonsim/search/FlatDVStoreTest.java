@@ -0,0 +1,110 @@
+package edu.uncc.cs.watsonsim.search;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import edu.uncc.cs.watsonsim.search.ApproxDVIndex.Hit;
+
+public class FlatDVStoreTest {
+
+	@Test
+	public void testHalves() {
+		for (int h=0; h<(1<<16); h++) {
+			float f = FlatDVStore.fromHalf((short) h);
+			if (!Float.isNaN(f))
+				assertEquals(h, FlatDVStore.toHalf(f) & 0xffff);
+		}
+		assertEquals(1.0f, FlatDVStore.fromHalf(FlatDVStore.toHalf(1.0f)), 0);
+		assertEquals(-0.5f, FlatDVStore.fromHalf(FlatDVStore.toHalf(-0.5f)), 0);
+		assertEquals(0.1f, FlatDVStore.fromHalf(FlatDVStore.toHalf(0.1f)), 1e-4);
+		assertTrue(Float.isInfinite(FlatDVStore.fromHalf(FlatDVStore.toHalf(1e6f))));
+	}
+
+	@Test
+	public void testInt8() {
+		float[] v = {0.5f, -1.0f, 0.25f};
+		float scale = FlatDVStore.scaleFor(v);
+		assertEquals(1.0f / 127, scale, 1e-7);
+		assertEquals(-127, FlatDVStore.toInt8(-1.0f, scale));
+		assertEquals(64, FlatDVStore.toInt8(0.5f, scale));
+		assertEquals(0, FlatDVStore.toInt8(0.5f, 0));
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		Random rng = new Random(1);
+		int dim = 16;
+		List<Map.Entry<String, float[]>> vectors = new ArrayList<>();
+		// Enough rows that the scan is split into several ranges
+		for (int i=0; i<50000; i++) {
+			float[] v = new float[dim];
+			for (int d=0; d<dim; d++) v[d] = (float) rng.nextGaussian();
+			vectors.add(new SimpleImmutableEntry<>("doc" + i, v));
+		}
+		float[] query = vectors.get(42).getValue().clone();
+		query[0] += 0.1;
+
+		for (FlatDVStore.Encoding encoding : FlatDVStore.Encoding.values()) {
+			Path dir = Files.createTempDirectory("flatdv");
+			FlatDVStore.write(dir, encoding, dim, vectors);
+			FlatDVStore store = new FlatDVStore(dir);
+			assertEquals(50000, store.size());
+			List<Hit> hits = store.search(query, 5);
+			assertEquals(5, hits.size());
+			assertEquals("doc42", hits.get(0).id);
+			for (int i=1; i<hits.size(); i++)
+				assertTrue(hits.get(i-1).sim >= hits.get(i).sim);
+
+			// A batch finds the same as searching one at a time
+			float[][] batch = {query, vectors.get(7).getValue(), new float[dim]};
+			List<List<Hit>> all = store.searchAll(batch, 5);
+			assertEquals(3, all.size());
+			for (int q=0; q<2; q++) {
+				List<Hit> one = store.search(batch[q], 5);
+				assertEquals(one.size(), all.get(q).size());
+				for (int i=0; i<one.size(); i++)
+					assertEquals(one.get(i).id, all.get(q).get(i).id);
+			}
+			// Nothing is similar to nothing
+			assertTrue(all.get(2).isEmpty());
+
+			// Rescoring a few documents agrees with the scan
+			double[] sims = store.sims(query,
+					Arrays.asList("doc42", "nothing", hits.get(1).id));
+			assertEquals(hits.get(0).sim, sims[0], 1e-6);
+			assertTrue(Double.isNaN(sims[1]));
+			assertEquals(hits.get(1).sim, sims[2], 1e-6);
+
+			// The top K are distinct, and the same as ranking every row
+			List<String> ids = vectors.stream()
+					.map(Map.Entry::getKey).collect(Collectors.toList());
+			double[] every = store.sims(query, ids);
+			List<String> expected = IntStream.range(0, ids.size()).boxed()
+					.sorted((a, b) -> Double.compare(every[b], every[a]))
+					.limit(50)
+					.map(ids::get)
+					.collect(Collectors.toList());
+			List<Hit> top = store.search(query, 50);
+			Set<String> found = new HashSet<>();
+			for (Hit hit : top) found.add(hit.id);
+			assertEquals(50, found.size());
+			assertEquals(new HashSet<>(expected), found);
+			for (int i=0; i<top.size(); i++)
+				assertEquals(every[ids.indexOf(expected.get(i))], top.get(i).sim, 1e-6);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package edu.uncc.cs.watsonsim.search;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.Question;
+import edu.uncc.cs.watsonsim.Score;
+import edu.uncc.cs.watsonsim.nlp.DenseVectors;
+import edu.uncc.cs.watsonsim.scorers.Merge;
+
+/**
+ * Lexical search rescored by dense vectors, as a cheaper stand-in for
+ * MeanDVSearch.
+ * <p>
+ * This runs the same query as LuceneSearcher, but keeps the top few hundred
+ * hits (hybrid_depth) instead of ten. Then it ranks them by the cosine
+ * similarity of the question's mean vector to each document's vector, which
+ * it reads from the FlatDVStore by docno, and returns the best. So it finds
+ * documents that are about the question even when they aren't Lucene's top
+ * ten, without scanning every vector. Hits without a vector go last, in
+ * Lucene's order.
+ * <p>
+ * Enable it with hybrid_search = true in config.properties, which puts it
+ * in the place of MeanDVSearch. The vectors come from
+ * hybrid_vectors_location (by default, where "FlatDVStore build" puts them).
+ *
+ * @author Sean Gallagher
+ */
+public class HybridSearcher extends Searcher {
+	private final FlatDVStore vectors;
+	/** How many Lucene hits to rescore */
+	private final int depth;
+	/** Which fields to read from each hit */
+	private final Set<String> fields;
+	/** Whether to look up skip-bigrams (see LuceneSearcher) */
+	private final boolean shingles;
+	
+	public HybridSearcher(Environment env) {
+		super(env);
+		fields = storedFields(env);
+		shingles = LuceneSearcher.useShingles(env);
+		depth = Integer.parseInt(env.getConfOrElse("hybrid_depth", "300"));
+		try {
+			vectors = new FlatDVStore(Paths.get(env.getConfOrElse(
+					"hybrid_vectors_location", FlatDVStore.DEFAULT_STORE.toString())));
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to open the document vectors for "
+					+ "hybrid search. Build them with FlatDVStore.", e);
+		}
+		Score.register("HYBRID_RANK", -1, Merge.Mean);
+		Score.register("HYBRID_DENSE_SIM", -1, Merge.Mean);
+		Score.register("HYBRID_LUCENE_RANK", -1, Merge.Mean);
+		Score.register("HYBRID_PRESENT", 0.0, Merge.Sum);
+	}
+	
+	public List<Passage> query(Question question) {
+		return fillMissingFromSources(
+				Collections.singletonList(search(question))).get(0);
+	}
+	
+	/**
+	 * Query many questions, running each distinct query only once and
+	 * filling in all their full texts together.
+	 */
+	@Override
+	public List<List<Passage>> queryAll(List<Question> questions) {
+		Map<String, List<Passage>> done = new HashMap<>();
+		List<List<Passage>> results = new ArrayList<>();
+		for (Question q : questions) {
+			results.add(done.computeIfAbsent(queryKey(q), k -> search(q)));
+		}
+		// Filling makes new passages, so repeated questions don't share any.
+		return fillMissingFromSources(results);
+	}
+	
+	/** Find passages for a question, but without their titles or text */
+	private List<Passage> search(Question question) {
+		List<Passage> results = new ArrayList<>();
+		try {
+			List<Document> docs = new ArrayList<>();
+			List<String> docnos = new ArrayList<>();
+			env.withLucene(lucene -> {
+				for (ScoreDoc s : lucene.search(
+						LuceneSearcher.queryFor(question, shingles), depth).scoreDocs) {
+					Document doc = lucene.doc(s.doc, fields);
+					docs.add(doc);
+					docnos.add(doc.get("docno"));
+				}
+				return null;
+			});
+			double[] sims = vectors.sims(question.memo(DenseVectors.meanVector), docnos);
+			
+			// Best similarity first; documents without vectors stay in order
+			List<Integer> order = new ArrayList<>();
+			for (int i=0; i<docs.size(); i++) order.add(i);
+			order.sort(Comparator.comparingDouble(
+					(Integer i) -> Double.isNaN(sims[i]) ? Double.POSITIVE_INFINITY : -sims[i]));
+			
+			for (int rank=0; rank < Math.min(MAX_RESULTS, order.size()); rank++) {
+				int i = order.get(rank);
+				Document doc = docs.get(i);
+				Passage p = new Passage(
+						"hybrid",
+						stored(doc, "title"),
+						stored(doc, "text"),
+						docnos.get(i))
+						.score("HYBRID_RANK", (double) rank)
+						.score("HYBRID_LUCENE_RANK", (double) i)
+						.score("HYBRID_PRESENT", 1.0);
+				if (!Double.isNaN(sims[i])) p.score("HYBRID_DENSE_SIM", sims[i]);
+				results.add(p);
+			}
+		} catch (IOException e) {
+			System.out.println("Failed to query Lucene. Is the index in the correct location?");
+			e.printStackTrace();
+		}
+		return results;
+	}
+
+}
@@ -2,13 +2,16 @@ package edu.uncc.cs.watsonsim.search;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
@@ -17,17 +20,22 @@ import edu.uncc.cs.watsonsim.Environment;
 import edu.uncc.cs.watsonsim.Passage;
 import edu.uncc.cs.watsonsim.Question;
 import edu.uncc.cs.watsonsim.Score;
+import edu.uncc.cs.watsonsim.index.SkipBigrams;
 import edu.uncc.cs.watsonsim.scorers.Merge;
 
 /**
  * @author Phani Rahul
  */
 public class LuceneSearcher extends Searcher {
-	private final IndexSearcher lucene;
+	/** Which fields to read from each hit */
+	final Set<String> fields;
+	/** Whether to look up skip-bigrams instead of running phrase queries */
+	final boolean shingles;
 	
 	public LuceneSearcher(Environment env) {
 		super(env);
-		lucene = env.lucene;
+		fields = storedFields(env);
+		shingles = useShingles(env);
 		Score.register("LUCENE_ANSWER_RANK", -1, Merge.Mean);
 		Score.register("LUCENE_ANSWER_SCORE", -1, Merge.Mean);
 		Score.register("LUCENE_ANSWER_PRESENT", 0.0, Merge.Sum);
@@ -37,7 +45,7 @@ public class LuceneSearcher extends Searcher {
 	 * Create a Lucene query using the bigrams in the given text
 	 * @param text
 	 */
-	public BooleanQuery queryFromSkipBigrams(String text) {
+	public static BooleanQuery queryFromSkipBigrams(String text) {
 		BooleanQuery q = new BooleanQuery();
 		String prev_word = null;
 		for (String word : text.split("\\W+")) {
@@ -54,38 +62,98 @@ public class LuceneSearcher extends Searcher {
 		return q;
 	}
 	
+	/**
+	 * Create a Lucene query like queryFromSkipBigrams(), but looking up each
+	 * pair of words as one term in the shingle field, which is much cheaper
+	 * than a phrase query. The index must have been built with shingles
+	 * (see index.SkipBigrams).
+	 */
+	public static BooleanQuery queryFromShingles(String text) {
+		BooleanQuery q = new BooleanQuery();
+		String prev_word = null;
+		for (String word : SkipBigrams.words(text)) {
+			if (prev_word != null) {
+				q.add(new TermQuery(new Term(SkipBigrams.FIELD,
+						SkipBigrams.term(prev_word, word))), BooleanClause.Occur.SHOULD);
+			}
+			q.add(new TermQuery(new Term("text", word)), BooleanClause.Occur.SHOULD);
+			prev_word = word;
+		}
+		return q;
+	}
+	
+	/**
+	 * The query LuceneSearcher runs for a question (also used by
+	 * HybridSearcher)
+	 * @param shingles	Whether to use queryFromShingles()
+	 */
+	static BooleanQuery queryFor(Question question, boolean shingles) {
+		String text = question.text + " " + question.getCategory();
+		return shingles ? queryFromShingles(text) : queryFromSkipBigrams(text);
+	}
+	
+	/**
+	 * Whether Lucene searchers should look up skip-bigrams in the shingle
+	 * field, as set by lucene_shingles in config.properties.
+	 */
+	static boolean useShingles(Environment env) {
+		return Boolean.parseBoolean(env.getConfOrElse("lucene_shingles", "false"));
+	}
 	
 	public List<Passage> query(Question question) {
+		// Fill any missing full text from sources
+		return fillMissingFromSources(
+				Collections.singletonList(search(question))).get(0);
+	}
+	
+	/**
+	 * Query many questions, running each distinct Lucene query only once and
+	 * filling in all their full texts together.
+	 */
+	@Override
+	public List<List<Passage>> queryAll(List<Question> questions) {
+		Map<String, List<Passage>> done = new HashMap<>();
+		List<List<Passage>> results = new ArrayList<>();
+		for (Question q : questions) {
+			results.add(done.computeIfAbsent(queryKey(q), k -> search(q)));
+		}
+		// Filling makes new passages, so repeated questions don't share any.
+		return fillMissingFromSources(results);
+	}
+	
+	/** Find passages for a question, but without their titles or text */
+	List<Passage> search(Question question) {
 		List<Passage> results = new ArrayList<>();
 		try {
-			//ScoreDoc[] hits = env.simpleLuceneQuery(question.text, MAX_RESULTS);
-			ScoreDoc[] hits = lucene.search(
-					queryFromSkipBigrams(
-							question.text
-							+ " "
-							+ question.getCategory()),
-					MAX_RESULTS).scoreDocs;
-			// This isn't range based because we need the rank
-			for (int i=0; i < hits.length; i++) {
-				ScoreDoc s = hits[i];
-				Document doc = lucene.doc(s.doc);
-				results.add(new edu.uncc.cs.watsonsim.Passage(
-						"lucene", 			// Engine
-						"",	// Title - filled in by shared db
-						"", // Text - filled in by shared db
-						doc.get("docno"))   // Reference
-						.score("LUCENE_ANSWER_RANK", (double) i)        // Rank
-						.score("LUCENE_ANSWER_SCORE", (double) s.score)	// Source
-						.score("LUCENE_ANSWER_PRESENT", 1.0)
-						);
-			}
+			env.withLucene(lucene -> {
+				//ScoreDoc[] hits = env.simpleLuceneQuery(question.text, MAX_RESULTS);
+				ScoreDoc[] hits = lucene.search(
+						queryFor(question, shingles),
+						MAX_RESULTS).scoreDocs;
+				// This isn't range based because we need the rank
+				for (int i=0; i < hits.length; i++) {
+					ScoreDoc s = hits[i];
+					results.add(passage(lucene.doc(s.doc, fields), i, s.score));
+				}
+				return null;
+			});
 		} catch (IOException e) {
 			System.out.println("Failed to query Lucene. Is the index in the correct location?");
 			e.printStackTrace();
 		}
-		
-		// Fill any missing full text from sources
-		return fillFromSources(results);
+		return results;
+	}
+	
+	/** Make a passage from a hit, with its rank and score */
+	static Passage passage(Document doc, int rank, float score) {
+		return new edu.uncc.cs.watsonsim.Passage(
+				"lucene", 			// Engine
+				stored(doc, "title"),	// Title - or filled in by shared db
+				stored(doc, "text"), // Text - or filled in by shared db
+				doc.get("docno"))   // Reference
+				.score("LUCENE_ANSWER_RANK", (double) rank)        // Rank
+				.score("LUCENE_ANSWER_SCORE", (double) score)	// Source
+				.score("LUCENE_ANSWER_PRESENT", 1.0);
 	}
 
 }
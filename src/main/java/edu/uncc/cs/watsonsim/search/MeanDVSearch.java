@@ -1,14 +1,17 @@
 package edu.uncc.cs.watsonsim.search;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import org.fusesource.lmdbjni.BufferCursor;
 import org.fusesource.lmdbjni.Database;
-import org.fusesource.lmdbjni.Entry;
 import org.fusesource.lmdbjni.Env;
 import org.fusesource.lmdbjni.Transaction;
 import static org.fusesource.lmdbjni.Constants.*;
@@ -16,7 +19,6 @@ import static org.fusesource.lmdbjni.Constants.*;
 import edu.uncc.cs.watsonsim.Environment;
 import edu.uncc.cs.watsonsim.KV;
 import edu.uncc.cs.watsonsim.Passage;
-import edu.uncc.cs.watsonsim.Phrase;
 import edu.uncc.cs.watsonsim.Question;
 import edu.uncc.cs.watsonsim.nlp.DenseVectors;
 
@@ -26,10 +28,41 @@ public class MeanDVSearch extends Searcher {
 	public static final int LEN = K+1; // How many entries in a result vector
 	private final String wiki_vectors_location = "data/wiki-vectors.lmdb";
 	private Env wiki_vectors_env = new Env();
+	/** The approximate index, if configured (see ApproxDVIndex) */
+	private final ApproxDVIndex index;
+	private final int nprobe;
+	/** The flat store, if configured (see FlatDVStore) */
+	private final FlatDVStore flat;
 	
+	/**
+	 * Create a searcher over the document vectors. By default this scans
+	 * them all in LMDB. With meandv_index = flat in config.properties, it
+	 * scans the (much faster) quantized FlatDVStore instead. With
+	 * meandv_index = ivf, it uses the (faster still, slightly lossy)
+	 * ApproxDVIndex, searching meandv_nprobe clusters (default 16).
+	 */
 	public MeanDVSearch(Environment env) {
 		super(env);
-		wiki_vectors_env.open(wiki_vectors_location, NOSUBDIR);
+		String kind = env.getConfOrElse("meandv_index", "lmdb");
+		ApproxDVIndex index = null;
+		FlatDVStore flat = null;
+		try {
+			if (kind.equals("ivf")) {
+				index = new ApproxDVIndex(Paths.get(env.getConfOrElse(
+						"meandv_index_location", ApproxDVIndex.DEFAULT_INDEX.toString())));
+			} else if (kind.equals("flat")) {
+				flat = new FlatDVStore(Paths.get(env.getConfOrElse(
+						"meandv_index_location", FlatDVStore.DEFAULT_STORE.toString())));
+			} else {
+				wiki_vectors_env.open(wiki_vectors_location, NOSUBDIR);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to open the " + kind + " document "
+					+ "vectors. Build them with ApproxDVIndex or FlatDVStore.", e);
+		}
+		this.index = index;
+		this.flat = flat;
+		nprobe = Integer.parseInt(env.getConfOrElse("meandv_nprobe", "16"));
 	}
 	
 	/**
@@ -65,45 +98,107 @@ public class MeanDVSearch extends Searcher {
 	 * Be warned: This will be slow.
 	 */
 	public List<Passage> query(Question question) {
-		// Convert the question to a vector.
-		float[] query_vector = DenseVectors.mean(
-				question.memo(Phrase.simpleTokens)
-				.stream().map(DenseVectors::vectorFor)
-				.filter(v -> v.isPresent())
-				.map(v -> v.get())
-				.collect(Collectors.toList()));
-		
+		return fillFromSources(scan(
+				Collections.singletonList(vectorFor(question))).get(0));
+	}
+	
+	/**
+	 * Search for many questions in a single pass over the vectors, which
+	 * costs about the same as searching for one. Repeated questions are
+	 * only searched once.
+	 */
+	@Override
+	public List<List<Passage>> queryAll(List<Question> questions) {
+		Map<String, Integer> distinct = new HashMap<>();
+		List<float[]> query_vectors = new ArrayList<>();
+		for (Question q : questions) {
+			if (!distinct.containsKey(q.text)) {
+				distinct.put(q.text, query_vectors.size());
+				query_vectors.add(vectorFor(q));
+			}
+		}
+		List<List<Passage>> found = scan(query_vectors);
+		List<List<Passage>> results = new ArrayList<>();
+		for (Question q : questions) {
+			results.add(found.get(distinct.get(q.text)));
+		}
+		// Filling makes new passages, so repeated questions don't share any.
+		return fillAllFromSources(results);
+	}
+	
+	/** Convert the question to a vector (memoized, so don't change it). */
+	private static float[] vectorFor(Question question) {
+		return question.memo(DenseVectors.meanVector);
+	}
+	
+	/**
+	 * Find the top K documents for each of several vectors, reading every
+	 * document vector only once.
+	 * @return Passages without titles or text, one list per query vector
+	 */
+	private List<List<Passage>> scan(List<float[]> query_vectors) {
+		// An empty batch would still read every vector
+		if (query_vectors.isEmpty()) return new ArrayList<>();
+		if (index != null || flat != null) {
+			List<List<ApproxDVIndex.Hit>> hits;
+			if (flat != null) {
+				// One pass over the store for the whole batch
+				hits = flat.searchAll(query_vectors.toArray(new float[0][]), K);
+			} else {
+				hits = new ArrayList<>();
+				for (float[] query_vector : query_vectors)
+					hits.add(index.query(query_vector, K, nprobe));
+			}
+			List<List<Passage>> results = new ArrayList<>();
+			for (List<ApproxDVIndex.Hit> query_hits : hits) {
+				List<Passage> passages = new ArrayList<>();
+				for (ApproxDVIndex.Hit hit : query_hits) {
+					passages.add(new Passage("meandv", "", "", hit.id));
+				}
+				results.add(passages);
+			}
+			return results;
+		}
+		int Q = query_vectors.size();
 		// Now look for (almost) that vector!
 		// This is a little ugly because we desperately avoid copying.
-		byte[][] winners = new byte[LEN][];
-		double[] sims = new double[LEN];
-		/*try (Transaction tx = wiki_vectors_env.createReadTransaction();
+		byte[][][] winners = new byte[Q][LEN][];
+		double[][] sims = new double[Q][LEN];
+		// Query lengths are found once, and each document's once per pass
+		float[] query_norms = new float[Q];
+		for (int q=0; q<Q; q++) query_norms[q] = DenseVectors.norm(query_vectors.get(q));
+		// Each document is decoded into the same array, straight from LMDB
+		float[] doc_vector = new float[N];
+		try (Transaction tx = wiki_vectors_env.createReadTransaction();
 				Database doc_vectors = wiki_vectors_env.openDatabase(tx, "wiki-vectors", 0);
 				BufferCursor cursor = doc_vectors.bufferCursor(tx)) {
-			cursor.first();
-			while (cursor.next()) {
-				double this_sim = sim(query_vector, cursor);
-				bubble(sims, winners, this_sim, cursor);
-			}
-		}*/
-		try (Transaction tx = wiki_vectors_env.createReadTransaction();
-				Database doc_vectors = wiki_vectors_env.openDatabase(tx, "wiki-vectors", 0)) {
-			for (Entry e : doc_vectors.iterate(tx).iterable()) {
-				double this_sim = DenseVectors.sim(query_vector, KV.asVector(e.getValue()));
-				if (Double.isFinite(this_sim))
-					bubble(sims, winners, this_sim, e.getKey(), K);
+			for (boolean more = cursor.first(); more; more = cursor.next()) {
+				KV.readVector(cursor.valDirectBuffer(), doc_vector);
+				float doc_norm = DenseVectors.norm(doc_vector);
+				// Only copy the name of a document that makes the top K
+				byte[] name = null;
+				for (int q=0; q<Q; q++) {
+					double this_sim = DenseVectors.sim(
+							query_vectors.get(q), query_norms[q], doc_vector, doc_norm);
+					if (Double.isFinite(this_sim) && this_sim > sims[q][K-1]) {
+						if (name == null) name = cursor.keyBytes();
+						bubble(sims[q], winners[q], this_sim, name, K);
+					}
+				}
 			}
-				
 		}
 		
 		// Now get the passages for the top entries.
-		List<Passage> passages = new ArrayList<>();
-		for (int i=0; i<K; i++) {
-			if (winners[i] != null) {
-				String id = string(winners[i]);
-				passages.add(new Passage("meandv", "", "", id));
-				System.out.println("value is : " + id + " sim: " + sims[i]);
+		List<List<Passage>> results = new ArrayList<>();
+		for (int q=0; q<Q; q++) {
+			List<Passage> passages = new ArrayList<>();
+			for (int i=0; i<K; i++) {
+				if (winners[q][i] != null) {
+					String id = string(winners[q][i]);
+					passages.add(new Passage("meandv", "", "", id));
+				}
 			}
+			results.add(passages);
 		}
 		
 		/*try{
@@ -119,7 +214,7 @@ public class MeanDVSearch extends Searcher {
 		} catch(Exception e) {
 			e.printStackTrace();
 		}*/
-		return fillFromSources(passages);
+		return results;
 	}
 
 	private static double sim(float[] left, float[] right) {
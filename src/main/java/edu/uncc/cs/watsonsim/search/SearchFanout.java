@@ -0,0 +1,186 @@
+package edu.uncc.cs.watsonsim.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.uncc.cs.watsonsim.Budget;
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Log;
+import edu.uncc.cs.watsonsim.Metrics;
+import edu.uncc.cs.watsonsim.Passage;
+import edu.uncc.cs.watsonsim.Question;
+
+/**
+ * Query several Searchers at once, each with its own deadline.
+ *
+ * The engines run concurrently on a small bounded pool, so a question takes
+ * about as long as the slowest engine instead of the sum of all of them.
+ * An engine that misses its deadline is dropped for that question: it
+ * contributes no passages (so its _PRESENT scores keep their defaults) and
+ * the timeout is recorded in the Log.
+ * <p>
+ * Deadlines are read from config.properties, in milliseconds:
+ * <pre>
+ * search_deadline_ms = 20000          # default for every engine
+ * search_deadline_ms.meandvsearch = 5000   # override, by Searcher.name()
+ * </pre>
+ * The question's {@link Budget} can shorten these further, since searching
+ * may only use the time before the SEARCH stage's reserve.
+ *
+ * @author Sean Gallagher
+ */
+public class SearchFanout {
+	private final Searcher[] searchers;
+	private final long[] deadlines;
+	private final ExecutorService pool;
+	private final Log log;
+
+	/**
+	 * Create a fan-out stage for a set of engines, reading their deadlines
+	 * from the environment's configuration.
+	 */
+	public SearchFanout(Environment env, Searcher... searchers) {
+		this.searchers = searchers;
+		this.log = env.log.kid(getClass());
+		long default_deadline = Long.parseLong(
+				env.getConfOrElse("search_deadline_ms", "20000"));
+		deadlines = new long[searchers.length];
+		for (int i=0; i<searchers.length; i++) {
+			deadlines[i] = Long.parseLong(env.getConfOrElse(
+					"search_deadline_ms." + searchers[i].name(),
+					String.valueOf(default_deadline)));
+		}
+
+		// One thread per engine is enough when everyone is on time.
+		// The short queue absorbs a straggler still running from the last
+		// question, but beyond that we refuse work rather than pile it up.
+		pool = new ThreadPoolExecutor(
+				searchers.length, searchers.length,
+				60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(searchers.length),
+				new ThreadFactoryBuilder()
+					.setDaemon(true)
+					.setNameFormat("search-%d")
+					.build());
+	}
+
+	/**
+	 * Run every engine on the question and collect the passages they found
+	 * in time. The passages are in the same order as the engines, just as
+	 * if they had been run one after another.
+	 */
+	public List<Passage> query(Question question) {
+		final long start = System.currentTimeMillis();
+		List<Future<List<Passage>>> pending = new ArrayList<>();
+		for (Searcher s : searchers) {
+			try {
+				Metrics.Timer timer = Metrics.timer("searcher", s.name());
+				pending.add(pool.submit(() -> timer.time(() -> s.query(question))));
+			} catch (RejectedExecutionException e) {
+				// Still busy with an earlier question; skip it this time.
+				log.warn(s.name() + " is still busy. Skipping it.");
+				pending.add(null);
+			}
+		}
+
+		List<Passage> results = new ArrayList<>();
+		List<String> over_budget = new ArrayList<>();
+		for (int i=0; i<searchers.length; i++) {
+			Future<List<Passage>> f = pending.get(i);
+			if (f == null) continue;
+			String name = searchers[i].name();
+			long remaining = start + deadlines[i] - System.currentTimeMillis();
+			long allowed = question.budget.millisFor(Budget.Stage.SEARCH);
+			try {
+				results.addAll(f.get(
+						Math.max(0, Math.min(remaining, allowed)),
+						TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				f.cancel(true);
+				Metrics.counter("searcher", name + ".timeouts").inc();
+				if (allowed < remaining) {
+					over_budget.add(name);
+					log.warn(name + " ran out of time budget. Dropping its results.");
+				} else {
+					log.warn(name + " missed its " + deadlines[i]
+							+ "ms deadline. Dropping its results.");
+				}
+			} catch (ExecutionException e) {
+				// One broken engine should not sink the whole question.
+				e.getCause().printStackTrace();
+				Metrics.counter("searcher", name + ".failures").inc();
+				log.error(name + " failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				// Give up on everyone that is left, but keep what we have.
+				Thread.currentThread().interrupt();
+				for (Future<List<Passage>> rest : pending.subList(i, pending.size()))
+					if (rest != null) rest.cancel(true);
+				break;
+			}
+		}
+		if (!over_budget.isEmpty())
+			question.budget.skip(Budget.Stage.SEARCH, "dropped " + over_budget);
+		return results;
+	}
+	
+	/**
+	 * Run every engine on a batch of questions, letting each engine share
+	 * its work across the batch (see {@link Searcher#queryAll(List)}).
+	 * Each engine may take its deadline once per question in the batch.
+	 * @return The passages for each question, in the same order
+	 */
+	public List<List<Passage>> queryAll(List<Question> questions) {
+		if (questions.isEmpty()) return new ArrayList<>();
+		final long start = System.currentTimeMillis();
+		List<Future<List<List<Passage>>>> pending = new ArrayList<>();
+		for (Searcher s : searchers) {
+			Metrics.Timer timer = Metrics.timer("searcher", s.name() + ".batch");
+			try {
+				pending.add(pool.submit(() -> timer.time(() -> s.queryAll(questions))));
+			} catch (RejectedExecutionException e) {
+				log.warn(s.name() + " is still busy. Skipping it.");
+				pending.add(null);
+			}
+		}
+		
+		List<List<Passage>> results = new ArrayList<>();
+		for (int q=0; q<questions.size(); q++) results.add(new ArrayList<>());
+		for (int i=0; i<searchers.length; i++) {
+			Future<List<List<Passage>>> f = pending.get(i);
+			if (f == null) continue;
+			String name = searchers[i].name();
+			long deadline = deadlines[i] * questions.size();
+			long remaining = start + deadline - System.currentTimeMillis();
+			try {
+				List<List<Passage>> found = f.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+				for (int q=0; q<questions.size(); q++)
+					results.get(q).addAll(found.get(q));
+			} catch (TimeoutException e) {
+				f.cancel(true);
+				Metrics.counter("searcher", name + ".timeouts").inc();
+				log.warn(name + " missed its " + deadline
+						+ "ms deadline for the batch. Dropping its results.");
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				Metrics.counter("searcher", name + ".failures").inc();
+				log.error(name + " failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<List<List<Passage>>> rest : pending.subList(i, pending.size()))
+					if (rest != null) rest.cancel(true);
+				break;
+			}
+		}
+		return results;
+	}
+}
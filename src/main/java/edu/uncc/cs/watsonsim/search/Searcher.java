@@ -1,10 +1,17 @@
 package edu.uncc.cs.watsonsim.search;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+
+import static java.util.stream.Collectors.toList;
 
 import edu.uncc.cs.watsonsim.Database;
 import edu.uncc.cs.watsonsim.Environment;
@@ -25,9 +32,11 @@ import edu.uncc.cs.watsonsim.Question;
 public abstract class Searcher {
 	protected final Database db;
 	protected final Environment env;
+	private final Sources sources;
 	public Searcher(Environment env) {
 		this.env = env;
 		db = env.db;
+		sources = new Sources(env);
 	}
 
     /**
@@ -52,6 +61,14 @@ public abstract class Searcher {
 		return query(q.text);
 	};
 
+	/**
+	 * A short lowercase name for this engine, used in configuration keys
+	 * and log messages.
+	 */
+	public String name() {
+		return getClass().getSimpleName().toLowerCase();
+	}
+
     /**
      * How many results should Lucene and Indri return?
      * This is also how many passages the scorers should expect.
@@ -60,39 +77,117 @@ public abstract class Searcher {
     public final static int MAX_RESULTS = 10;
     
     
+    /**
+     * Run many questions at once, returning their passages in the same order.
+     * 
+     * Engines that can share work across questions should override this.
+     * By default, each distinct question is queried once and repeated
+     * questions get copies of its passages.
+     */
+    public List<List<Passage>> queryAll(List<Question> questions) {
+    	Map<String, List<Passage>> done = new HashMap<>();
+    	List<List<Passage>> results = new ArrayList<>();
+    	for (Question q : questions) {
+    		List<Passage> found = done.get(queryKey(q));
+    		if (found == null) {
+    			found = query(q);
+    			done.put(queryKey(q), found);
+    			results.add(found);
+    		} else {
+    			// Passages are mutable, so each question needs its own
+    			results.add(found.stream().map(Passage::new).collect(toList()));
+    		}
+    	}
+    	return results;
+    }
+    
+    /**
+     * Questions with the same key are assumed to give the same results.
+     */
+    static String queryKey(Question q) {
+    	return q.text + "\n" + q.getCategory();
+    }
+    
     /** Fill in the missing titles and full texts from Answers using the
      * sources from the relational database.
      *  
      * This is a no-op if the sources database is missing.
      */
     List<Passage> fillFromSources(List<Passage> passages) {
-    	List<Passage> results = new ArrayList<>();
-    	PreparedStatement fetcher = db.prep("SELECT title, text FROM sources WHERE reference=? or id=?;");
-
-    	for (Passage p: passages) {
-    		ResultSet doc_row;
-    		try {
-				fetcher.setString(1, p.reference);
-				fetcher.setString(2, p.reference);
-				doc_row = fetcher.executeQuery();
-				if (doc_row.next()
-						&& doc_row.getString("title") != null
-						&& doc_row.getString("text") != null) {
-					Passage np = new Passage(
-							p.engine_name,
-							doc_row.getString("title"),
-							doc_row.getString("text"),
-							p.reference
-							);
-					np.scores = p.scores.clone();
-                    results.add(np);
-				}
-			} catch (SQLException e) {
-				e.printStackTrace();
-				throw new RuntimeException("Failed to execute sources search. "
-						+ "Missing document? docno:"+p.reference);
-			}
+    	return fillAllFromSources(Collections.singletonList(passages)).get(0);
+    }
+    
+    /**
+     * Fill in the titles and full texts for the passages of many questions
+     * at once, looking up each distinct document only once.
+     * Passages without a document are dropped, as in fillFromSources().
+     */
+    List<List<Passage>> fillAllFromSources(List<List<Passage>> batch) {
+    	return fill(batch, false);
+    }
+    
+    /**
+     * Like fillAllFromSources(), but passages that already have a title and
+     * text (like those read from Lucene's stored fields) are kept as they
+     * are, and only the rest are looked up. Every passage is still a new
+     * copy.
+     */
+    List<List<Passage>> fillMissingFromSources(List<List<Passage>> batch) {
+    	return fill(batch, true);
+    }
+    
+    private List<List<Passage>> fill(List<List<Passage>> batch, boolean keep_complete) {
+    	List<String> references = new ArrayList<>();
+    	for (List<Passage> passages : batch)
+    		for (Passage p : passages)
+    			if (!(keep_complete && isComplete(p)))
+    				references.add(p.reference);
+    	Map<String, Sources.Doc> docs = references.isEmpty()
+    			? Collections.emptyMap()
+    			: sources.fetch(references);
+    	
+    	List<List<Passage>> results = new ArrayList<>();
+    	for (List<Passage> passages : batch) {
+    		List<Passage> filled = new ArrayList<>();
+    		for (Passage p: passages) {
+    			if (keep_complete && isComplete(p)) {
+    				filled.add(new Passage(p));
+    				continue;
+    			}
+    			Sources.Doc doc = docs.get(p.reference);
+    			if (doc != null) {
+    				Passage np = new Passage(p.engine_name, doc.title, doc.text, p.reference);
+    				np.scores = p.scores.clone();
+    				filled.add(np);
+    			}
+    		}
+    		results.add(filled);
     	}
     	return results;
     }
+    
+    /**
+     * Which fields Lucene searchers should read from their hits.
+     * With lucene_stored_fields = true in config.properties, they read the
+     * title and text from the index (see index.Lucene) instead of the
+     * sources table. Beware that the index holds the whole document, where
+     * the sources table gives only its first paragraph.
+     */
+    static Set<String> storedFields(Environment env) {
+    	if (Boolean.parseBoolean(env.getConfOrElse("lucene_stored_fields", "false"))) {
+    		return new HashSet<>(Arrays.asList("docno", "title", "text"));
+    	} else {
+    		return Collections.singleton("docno");
+    	}
+    }
+    
+    /** A stored field of a Lucene hit, or "" if it wasn't stored or read */
+    static String stored(Document doc, String field) {
+    	String value = doc.get(field);
+    	return value == null ? "" : value;
+    }
+    
+    private static boolean isComplete(Passage p) {
+    	return !(p.title.isEmpty() || p.text.isEmpty());
+    }
 }
@@ -0,0 +1,182 @@
+package edu.uncc.cs.watsonsim.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.MMapDirectory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.uncc.cs.watsonsim.Metrics;
+
+/**
+ * A Lucene index split into shards (as written by index.ShardedLucene),
+ * searched as if it were one.
+ * <p>
+ * Every shard is searched at once, and their top hits are merged. For the
+ * scores to be comparable, each shard scores with the statistics of the
+ * whole collection (document frequencies, lengths and so on) rather than
+ * its own, so the merged ranking is the same as a single index would give.
+ * The time each shard takes is recorded in Metrics, as lucene_shard.(i).
+ *
+ * @author Sean Gallagher
+ */
+public class ShardedIndex implements Closeable {
+	/** Threads for searching shards, shared by every index */
+	private static final ExecutorService pool = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("lucene-shard-%d")
+				.build());
+	private final ShardSearcher[] shards;
+	private final Metrics.Timer[] timers;
+
+	/**
+	 * Open the shards in a directory
+	 * @param dir	The directory holding shard-0, shard-1, ...
+	 */
+	public ShardedIndex(Path dir) throws IOException {
+		this(open(dir));
+	}
+
+	/**
+	 * Search some already open shards. Closing this closes them.
+	 */
+	public ShardedIndex(IndexReader... readers) {
+		shards = new ShardSearcher[readers.length];
+		timers = new Metrics.Timer[readers.length];
+		for (int i=0; i<readers.length; i++) {
+			shards[i] = new ShardSearcher(readers[i]);
+			timers[i] = Metrics.timer("lucene_shard", String.valueOf(i));
+		}
+	}
+
+	/** Where shard i of an index is */
+	public static Path shard(Path dir, int i) {
+		return dir.resolve("shard-" + i);
+	}
+
+	/**
+	 * Open every shard in a directory, in order
+	 * @throws IOException if there are none, or one fails to open
+	 */
+	public static IndexReader[] open(Path dir) throws IOException {
+		List<IndexReader> opened = new ArrayList<>();
+		for (int i=0; Files.isDirectory(shard(dir, i)); i++) {
+			opened.add(DirectoryReader.open(new MMapDirectory(shard(dir, i))));
+		}
+		if (opened.isEmpty()) throw new IOException("There are no shards in " + dir);
+		return opened.toArray(new IndexReader[0]);
+	}
+
+	/** How many shards there are */
+	public int size() {
+		return shards.length;
+	}
+
+	/**
+	 * Search every shard at once for the top n hits overall. Each hit's
+	 * shardIndex says which shard it is from, for doc().
+	 */
+	public TopDocs search(Query query, int n) throws IOException {
+		List<Future<TopDocs>> pending = new ArrayList<>();
+		for (int i=0; i<shards.length; i++) {
+			ShardSearcher shard = shards[i];
+			Metrics.Timer timer = timers[i];
+			pending.add(pool.submit(() -> {
+				try (Metrics.Split s = timer.start()) {
+					return shard.search(query, n);
+				}
+			}));
+		}
+		TopDocs[] results = new TopDocs[shards.length];
+		try {
+			for (int i=0; i<shards.length; i++) results[i] = pending.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching shards", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to search a shard", e.getCause());
+		}
+		return TopDocs.merge(null, n, results);
+	}
+
+	/** Read some fields of a hit from search() */
+	public Document doc(ScoreDoc hit, Set<String> fields) throws IOException {
+		return shards[hit.shardIndex].doc(hit.doc, fields);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (ShardSearcher shard : shards) shard.getIndexReader().close();
+	}
+
+	/** Searches one shard, but with statistics of the whole collection */
+	private final class ShardSearcher extends IndexSearcher {
+		ShardSearcher(IndexReader reader) {
+			super(reader);
+		}
+
+		/** This shard's own statistics for a term */
+		TermStatistics localTermStatistics(Term term) throws IOException {
+			return super.termStatistics(term, TermContext.build(getTopReaderContext(), term));
+		}
+
+		/** This shard's own statistics for a field */
+		CollectionStatistics localCollectionStatistics(String field) throws IOException {
+			return super.collectionStatistics(field);
+		}
+
+		@Override
+		public TermStatistics termStatistics(Term term, TermContext context) throws IOException {
+			long doc_freq = 0, total_term_freq = 0;
+			for (ShardSearcher shard : shards) {
+				TermStatistics local = shard == this
+						? super.termStatistics(term, context)
+						: shard.localTermStatistics(term);
+				doc_freq += local.docFreq();
+				total_term_freq = sum(total_term_freq, local.totalTermFreq());
+			}
+			return new TermStatistics(term.bytes(), doc_freq, total_term_freq);
+		}
+
+		@Override
+		public CollectionStatistics collectionStatistics(String field) throws IOException {
+			long max_doc = 0, doc_count = 0, sum_total_term_freq = 0, sum_doc_freq = 0;
+			for (ShardSearcher shard : shards) {
+				CollectionStatistics local = shard.localCollectionStatistics(field);
+				max_doc += local.maxDoc();
+				doc_count = sum(doc_count, local.docCount());
+				sum_total_term_freq = sum(sum_total_term_freq, local.sumTotalTermFreq());
+				sum_doc_freq = sum(sum_doc_freq, local.sumDocFreq());
+			}
+			return new CollectionStatistics(field, max_doc, doc_count,
+					sum_total_term_freq, sum_doc_freq);
+		}
+	}
+
+	/** Add statistics, where -1 means unknown (and stays unknown) */
+	private static long sum(long a, long b) {
+		return a < 0 || b < 0 ? -1 : a + b;
+	}
+}
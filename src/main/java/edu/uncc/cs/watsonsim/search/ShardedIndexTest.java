@@ -0,0 +1,79 @@
+package edu.uncc.cs.watsonsim.search;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.QueryBuilder;
+import org.junit.Test;
+
+public class ShardedIndexTest {
+	// Most of the moons are in the first shard, so its statistics are skewed
+	private static final String[][] FIRST = {
+		{"Moon landing", "the moon landing was in 1969"},
+		{"Walk", "armstrong walked on the moon"},
+		{"Moon", "the moon is made of rock and dust"},
+		{"Apollo 11", "apollo eleven carried armstrong to the moon and back"}};
+	private static final String[][] SECOND = {
+		{"Mars", "mars is red"},
+		{"Sun", "the sun is a star"},
+		{"Trumpet", "armstrong played the trumpet"}};
+
+	private static Directory index(String[][]... parts) throws IOException {
+		Directory dir = new RAMDirectory();
+		try (IndexWriter w = new IndexWriter(dir,
+				new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (String[][] part : parts) {
+				for (String[] row : part) {
+					Document doc = new Document();
+					doc.add(new StringField("title", row[0], Field.Store.YES));
+					doc.add(new TextField("text", row[1], Field.Store.NO));
+					w.addDocument(doc);
+				}
+			}
+		}
+		return dir;
+	}
+
+	@Test
+	public void testRanksLikeOneIndex() throws IOException {
+		Query query = new QueryBuilder(new StandardAnalyzer())
+				.createBooleanQuery("text", "armstrong moon", Occur.SHOULD);
+		IndexSearcher whole = new IndexSearcher(
+				DirectoryReader.open(index(FIRST, SECOND)));
+		IndexReader first = DirectoryReader.open(index(FIRST));
+		try (ShardedIndex sharded = new ShardedIndex(
+				first, DirectoryReader.open(index(SECOND)))) {
+			ScoreDoc[] expected = whole.search(query, 10).scoreDocs;
+			ScoreDoc[] actual = sharded.search(query, 10).scoreDocs;
+			assertEquals(5, expected.length);
+			assertEquals(expected.length, actual.length);
+			for (int i=0; i<expected.length; i++) {
+				assertEquals(whole.doc(expected[i].doc).get("title"),
+						sharded.doc(actual[i], Collections.singleton("title")).get("title"));
+				assertEquals(expected[i].score, actual[i].score, 1e-6);
+			}
+
+			// A shard alone would score differently, so the statistics matter
+			ScoreDoc local = new IndexSearcher(first).search(query, 1).scoreDocs[0];
+			assertNotEquals(expected[0].score, local.score, 1e-6);
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package edu.uncc.cs.watsonsim.search;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.uncc.cs.watsonsim.Database;
+import edu.uncc.cs.watsonsim.Environment;
+import edu.uncc.cs.watsonsim.Metrics;
+
+/**
+ * Fetch the titles and full texts of documents from the sources table.
+ * <p>
+ * Every searcher, and PassageRetrieval for every candidate, needs the text
+ * of the documents it found, and many of them find the same ones. So this
+ * looks up many references in one query, and keeps recently used documents
+ * in a cache shared by every pipeline. The cached texts are LZ4 compressed
+ * so that many more of them fit. The cache size is read from
+ * config.properties as sources_cache_mb (default 128).
+ * <p>
+ * Like the old per-passage lookup, a reference matches either the reference
+ * or the id column, and only the first matching row counts. References
+ * without a complete row are remembered as missing too.
+ *
+ * @author Sean Gallagher
+ */
+public class Sources {
+	/** A document's title and full text */
+	public static final class Doc {
+		public final String title;
+		public final String text;
+		Doc(String title, String text) {
+			this.title = title;
+			this.text = text;
+		}
+	}
+
+	/** A document as it is kept in the cache, with its text compressed */
+	private static final class Packed {
+		final String title;
+		final byte[] text;
+		final int length;
+		Packed(String title, byte[] text, int length) {
+			this.title = title;
+			this.text = text;
+			this.length = length;
+		}
+	}
+
+	/** Placeholder for references that have no document */
+	private static final Packed MISSING = new Packed("", new byte[0], 0);
+	/** How many references to resolve in one query, at most */
+	private static final int CHUNK = 256;
+	private static final LZ4Compressor compressor =
+			LZ4Factory.fastestInstance().fastCompressor();
+	private static final LZ4FastDecompressor decompressor =
+			LZ4Factory.fastestInstance().fastDecompressor();
+	private static Cache<String, Packed> cache;
+
+	private final Database db;
+
+	public Sources(Environment env) {
+		db = env.db;
+		synchronized (Sources.class) {
+			if (cache == null) {
+				long mb = Long.parseLong(env.getConfOrElse("sources_cache_mb", "128"));
+				cache = CacheBuilder.newBuilder()
+						.concurrencyLevel(50)
+						.maximumWeight(mb << 20)
+						.weigher((String ref, Packed p) ->
+							64 + 2 * (ref.length() + p.title.length()) + p.text.length)
+						.recordStats()
+						.build();
+				Metrics.cache("sources", cache);
+			}
+		}
+	}
+
+	/**
+	 * Find the documents for many references at once.
+	 * @param references	Which documents to find. Repeats are fine.
+	 * @return	The documents that exist, by reference
+	 */
+	public Map<String, Doc> fetch(Collection<String> references) {
+		Map<String, Doc> found = new HashMap<>();
+		List<String> todo = new ArrayList<>();
+		for (String ref : new LinkedHashSet<>(references)) {
+			Packed p = cache.getIfPresent(ref);
+			if (p == null) {
+				todo.add(ref);
+			} else if (p != MISSING) {
+				found.put(ref, unpack(p));
+			}
+		}
+		for (int i=0; i<todo.size(); i+=CHUNK) {
+			query(todo.subList(i, Math.min(i+CHUNK, todo.size())), found);
+		}
+		return found;
+	}
+
+	/**
+	 * Look up some references in one query, and cache what is found.
+	 * The number of parameters is rounded up to a power of two (repeating
+	 * the last reference) so that only a few distinct statements are made.
+	 */
+	private void query(List<String> refs, Map<String, Doc> found) {
+		int slots = Integer.highestOneBit(refs.size());
+		if (slots < refs.size()) slots <<= 1;
+		StringBuilder marks = new StringBuilder("?");
+		for (int i=1; i<slots; i++) marks.append(",?");
+		String sql = "SELECT reference, id, title, text FROM sources "
+				+ "WHERE reference IN (" + marks + ") OR id IN (" + marks + ");";
+
+		Metrics.counter("sources", "queries").inc();
+		Set<String> wanted = new HashSet<>(refs);
+		Set<String> seen = new HashSet<>();
+		try (Database.Lease lease = db.borrow()) {
+			PreparedStatement fetcher = lease.prep(sql);
+			for (int i=0; i<slots; i++) {
+				String ref = refs.get(Math.min(i, refs.size()-1));
+				fetcher.setString(i+1, ref);
+				fetcher.setString(slots+i+1, ref);
+			}
+			try (ResultSet doc_row = fetcher.executeQuery()) {
+				while (doc_row.next()) {
+					String title = doc_row.getString("title");
+					String text = doc_row.getString("text");
+					for (String key : new String[]{
+							doc_row.getString("reference"),
+							doc_row.getString("id")}) {
+						// Only the first row for each reference counts
+						if (key == null || !wanted.contains(key) || !seen.add(key))
+							continue;
+						if (title != null && text != null) {
+							cache.put(key, pack(title, text));
+							found.put(key, new Doc(title, text));
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Failed to execute sources search. "
+					+ "Missing documents? docnos:" + refs);
+		}
+		for (String ref : refs) {
+			if (!found.containsKey(ref)) cache.put(ref, MISSING);
+		}
+	}
+
+	private static Packed pack(String title, String text) {
+		byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+		return new Packed(title, compressor.compress(raw), raw.length);
+	}
+
+	private static Doc unpack(Packed p) {
+		return new Doc(p.title, new String(
+				decompressor.decompress(p.text, p.length), StandardCharsets.UTF_8));
+	}
+}
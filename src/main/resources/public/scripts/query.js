@@ -32,6 +32,11 @@ angular.module('queryApp', [])
 		case "log":
 			write_log(content.message);
 			break;
+		case "partial":
+			// Provisional answers, until the result arrives
+			queryDetail.answers = content.message.answers;
+			queryDetail.note = "Still working (after " + content.message.stage + ")...";
+			break;
 		case "result":
 			queryDetail.answers = content.message;
 			$("#console").slideUp();